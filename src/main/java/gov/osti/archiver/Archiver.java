@@ -21,6 +21,7 @@ import java.util.UUID;
 import java.util.ArrayList;
 import java.util.List;
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -146,7 +147,10 @@ public class Archiver extends Thread {
                     !StringUtils.isEmptyOrNull(project.getFileName())) {
                     try {
                         p.setRepositoryType(Project.RepositoryType.File);
-                        p.setCacheFolder(Extractor.uncompressArchive(project));
+                        // content may already have been extracted on upload;
+                        // otherwise, reuse what is unchanged from the last upload
+                        if (StringUtils.isEmptyOrNull(project.getCacheFolder()))
+                            p.setCacheFolder(Extractor.uncompressArchive(project, findPreviousUpload(em, p)));
                     } catch ( IOException | ArchiveException e ) {
                         log.warn("Archive extraction error: "+ e.getMessage());
                         p.setStatus(Project.Status.Error);
@@ -161,9 +165,10 @@ public class Archiver extends Thread {
                             p.setRepositoryType(Project.RepositoryType.TaggedRelease);
                             project.setSendFileNotification(true);
 
-                            // download the tagged release
-                            java.nio.file.Path destination = Paths.get(FILE_BASEDIR, String.valueOf(project.getProjectId()), String.valueOf(project.getProjectId()) + TR_ARCHIVE_EXT);
-                            HttpUtil.downloadTaggedRelease(GitRepository.getTagDownloadUrl(project.getRepositoryLink()), destination);
+                            // download the tagged release, unless resuming its extraction
+                            java.nio.file.Path destination = getTaggedReleasePath(project.getProjectId());
+                            if (!Extractor.isInterrupted(destination.toString()))
+                                HttpUtil.downloadTaggedRelease(GitRepository.getTagDownloadUrl(project.getRepositoryLink()), destination);
                             
                             // unzip the tagged release
                             project.setFileName(destination.toString());
@@ -237,6 +242,77 @@ public class Archiver extends Thread {
         }
     }
 
+    /**
+     * Find the most recent completed file upload for any of a Project's CODE
+     * IDs, other than the Project itself.  Only uploads stored alike, limited
+     * or not, are considered, so files are never linked between the two.
+     * 
+     * @param em the EntityManager to use
+     * @param p the Project being archived
+     * @return the previous file upload Project, or null if none
+     */
+    private static Project findPreviousUpload(EntityManager em, Project p) {
+        if (p.getSimpleCodeIds().isEmpty())
+            return null;
+
+        List<RepositoryType> types = new ArrayList<>();
+        types.add(RepositoryType.File);
+
+        List<Project> results = em.createNamedQuery("Project.findPreviousByCodeId", Project.class)
+                .setParameter("ids", p.getSimpleCodeIds())
+                .setParameter("id", p.getProjectId())
+                .setParameter("limited", p.getIsLimited())
+                .setParameter("types", types)
+                .setParameter("status", Project.Status.Complete)
+                .setMaxResults(1)
+                .getResultList();
+
+        return (results.isEmpty()) ? null : results.get(0);
+    }
+
+    /**
+     * Get the local file path a Tagged Release archive is downloaded to.
+     * 
+     * @param projectId the PROJECT ID of the release
+     * @return the Path to the release archive
+     */
+    private static Path getTaggedReleasePath(Long projectId) {
+        return Paths.get(FILE_BASEDIR, String.valueOf(projectId), String.valueOf(projectId) + TR_ARCHIVE_EXT);
+    }
+
+    /**
+     * Restart archiving of Pending Projects whose archive extraction was
+     * interrupted, such as by a redeploy.  Extraction resumes from its
+     * checkpoint rather than starting over.
+     */
+    public static void resumeInterrupted() {
+        EntityManager em = ServletContextListener.createEntityManager();
+
+        try {
+            TypedQuery<Project> query = em.createNamedQuery("Project.findByStatus", Project.class)
+                    .setParameter("status", Project.Status.Pending);
+
+            for ( Project p : query.getResultList() ) {
+                String fileName = p.getFileName();
+
+                // Tagged Release archives are not recorded on the Project
+                if (StringUtils.isEmptyOrNull(fileName) &&
+                    !StringUtils.isEmptyOrNull(p.getRepositoryLink()) &&
+                    GitRepository.isTaggedRelease(p.getRepositoryLink()))
+                    fileName = getTaggedReleasePath(p.getProjectId()).toString();
+
+                if (!Extractor.isInterrupted(fileName))
+                    continue;
+
+                log.info("Resuming interrupted archive extraction for Project " + p.getProjectId());
+
+                ServletContextListener.callArchiver(p);
+            }
+        } finally {
+            em.close();
+        }
+    }
+
     /**
      * Send a File Upload approval email notification on ANNOUNCEMENT of DOE CODE records with a file.
      *
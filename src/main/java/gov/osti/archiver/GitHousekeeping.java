@@ -0,0 +1,70 @@
+/*
+ */
+package gov.osti.archiver;
+
+import gov.osti.archiver.entity.Project;
+import gov.osti.archiver.listener.ServletContextListener;
+import gov.osti.archiver.util.GitRepository;
+import javax.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repacks and prunes the git cache of a Project, so it stays quick to fetch
+ * into and to count, and light on disk space and inodes.
+ */
+public class GitHousekeeping extends Thread {
+    // logger
+    private static Logger log = LoggerFactory.getLogger(GitHousekeeping.class);
+    // the Project to housekeep
+    private Project project;
+    // link to background housekeeping caller
+    private Housekeeper callback;
+
+    public GitHousekeeping(Project p, Housekeeper instance) {
+        project = p;
+        callback = instance;
+    }
+
+    /**
+     * Process a single git cache in a Thread.
+     */
+    @Override
+    public void run() {
+        EntityManager em = ServletContextListener.createEntityManager();
+
+        try {
+            if (null!=project) {
+                // stay out of the way of a maintenance pass begun meanwhile
+                if (Maintainer.getInstance().isActive()) {
+                    log.info("Maintenance running; housekeeping of Project #" + project.getProjectId() + " put off.");
+                    return;
+                }
+
+                // find it
+                Project p = em.find(Project.class, project.getProjectId());
+                if (null==p) {
+                    log.warn("Unable to look up Project for housekeeping: " + project.getProjectId());
+                    return;
+                }
+
+                try {
+                    log.info("Housekept Project #" + project.getProjectId() + ": " + GitRepository.housekeep(project));
+                } catch ( Exception e ) {
+                    log.warn("Housekeeping Error on #" + project.getProjectId() + ": " + e.getMessage());
+                }
+
+                // not retried before its turn comes round again, even if failed
+                em.getTransaction().begin();
+                p.setDateLastHousekeeping();
+                em.getTransaction().commit();
+            }
+        } finally {
+            // all done with this one
+            if (callback != null) {
+                callback.completed(project);
+            }
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ */
+package gov.osti.archiver;
+
+import gov.osti.archiver.entity.Project;
+import gov.osti.archiver.listener.ServletContextListener;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Static singleton Class to run git cache housekeeping (repacking and
+ * pruning) tasks in the background.
+ *
+ * Instantiates once, is either active or not, and contains status of all the
+ * current running housekeeping tasks.  Housekeeping is heavy on disk and CPU,
+ * so to keep out of the way of maintenance it works on one Project at a
+ * time, a limited number per run, and never starts while a maintenance pass
+ * is running; any tasks left when one starts are put off to the next run.
+ */
+public class Housekeeper {
+    // logger
+    private static Logger log = LoggerFactory.getLogger(Housekeeper.class);
+    // days between housekeeping of each git cache
+    private static long HOUSEKEEPING_DAYS = ServletContextListener.getConfigurationProperty("git.housekeeping.days", 30);
+    // most git caches housekept per run
+    private static long HOUSEKEEPING_LIMIT = ServletContextListener.getConfigurationProperty("git.housekeeping.limit", 100);
+    // singleton instance (lazy instantiation)
+    private static Housekeeper instance = null;
+    // instance variables
+    private Long projectCount = 0l;
+    private Long finishedCount = 0l;
+    // thread pool for tasks
+    private ExecutorService threadPool;
+    // for setting up thread pools; one at a time, so as not to compete with maintenance
+    private static final int MAX_THREADS = 1;
+    // thread pool tasks
+    private List<Future<?>> tasks = new ArrayList<>();
+
+    private Housekeeper() {
+        // do not instantiate outside newInstance call
+
+        // set up a basic Thread pool for background tasks
+        threadPool = Executors.newFixedThreadPool(MAX_THREADS);
+    }
+
+    /**
+     * Acquire the Singleton instance for this Service.
+     * @return the Housekeeper instance
+     */
+    public static Housekeeper getInstance() {
+        if (null==instance) {
+            instance = new Housekeeper();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Call this to clean up after ourselves, usually at application unload.
+     */
+    public static void close() {
+        if (null!=instance) {
+            instance.threadPool.shutdown();
+        }
+    }
+
+    /**
+     * Determine whether or not a Housekeeper is running active tasks.
+     *
+     * @return true if active threads are running, false if not
+     */
+    public synchronized boolean isActive() {
+        boolean allDone = true;
+
+        // examine each Future task status
+        for ( Future<?> task : tasks ) {
+            allDone &= task.isDone();
+        }
+
+        // no more active tasks, clear the pool
+        if (allDone)
+            tasks.clear();
+
+        // send back the pool status
+        return !allDone;
+    }
+
+    /**
+     * Set the TOTAL number of Projects to process
+     * @param count the PROJECT COUNT
+     */
+    protected void setProjectCount(Long count) {
+        this.projectCount = count;
+    }
+
+    /**
+     * Get the PROJECT COUNT
+     * @return the COUNT of Projects being processed
+     */
+    public Long getProjectCount() {
+        return this.projectCount;
+    }
+
+    public Long getFinishedCount() {
+        return this.finishedCount;
+    }
+
+    /**
+     * Callback hook for completing Project work.
+     *
+     * @param p the Project just completed
+     */
+    public void completed(Project p) {
+        // for now, just increment the count of completed projects
+        ++finishedCount;
+    }
+
+    /**
+     * Start the housekeeping tasks for git caches not housekept (or, if
+     * never, not added) in the configured number of days, oldest first, if not
+     * already running and no maintenance pass is.
+     */
+    public synchronized void start() {
+        if (isActive())
+            return;
+        if (Maintainer.getInstance().isActive()) {
+            log.info("Maintenance running; housekeeping put off.");
+            return;
+        }
+
+        // reset the counter
+        this.finishedCount = 0l;
+        // acquire the List of Projects to housekeep
+        EntityManager em = ServletContextListener.createEntityManager();
+        try {
+            TypedQuery<Project> projectQuery = em.createNamedQuery("Project.findHousekeepingReady", Project.class)
+                    .setParameter("status", Project.Status.Complete)
+                    .setParameter("type", Project.RepositoryType.Git)
+                    .setParameter("before", new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(HOUSEKEEPING_DAYS)))
+                    .setMaxResults((int) HOUSEKEEPING_LIMIT);
+            List<Project> projects = projectQuery.getResultList();
+
+            setProjectCount((long) projects.size());
+
+            // add each to the thread pool
+            projects.stream().forEach(project->{
+                tasks.add(threadPool.submit(new GitHousekeeping(project, this)));
+            });
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -4,6 +4,7 @@ package gov.osti.archiver;
 
 import gov.osti.archiver.entity.Project;
 import gov.osti.archiver.listener.ServletContextListener;
+import gov.osti.archiver.util.GitRepository;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -70,7 +71,7 @@ public class Maintainer {
      * 
      * @return true if active threads are running, false if not
      */
-    public boolean isActive() {
+    public synchronized boolean isActive() {
         boolean allDone = true;
         
         // examine each Future task status
@@ -119,10 +120,12 @@ public class Maintainer {
     /**
      * Start the maintenance tasks, if not already running.
      */
-    public void start() {
+    public synchronized void start() {
         if (!isActive()) {
             // reset the counter
             this.finishedCount = 0l;
+            // ask each remote afresh this pass
+            GitRepository.clearRemoteRefs();
             // acquire the List of Projects to maintain
             EntityManager em = ServletContextListener.createEntityManager();
             try {
@@ -156,7 +159,7 @@ public class Maintainer {
     /**
      * Start maintenance of single project, if not already running.
      */
-    public void sync(Long project) {
+    public synchronized void sync(Long project) {
         if (!isActive()) {
             // reset the counter
             this.finishedCount = 0l;
@@ -58,9 +58,65 @@ public class RepositorySync extends Thread {
                         em.getTransaction().begin();
                         
                         p.setDateLastMaintained();
+
+                        // a git cache is skipped if its remote is unchanged since
+                        // it was last successfully maintained, in full
+                        String remoteTips = null;
+                        boolean unchanged = false;
+
+                        if (Project.RepositoryType.Git.equals(p.getRepositoryType())) {
+                            try {
+                                remoteTips = GitRepository.listRemoteTips(project);
+                                unchanged = remoteTips.equals(project.getRemoteTips()) &&
+                                        Project.Status.Complete.equals(project.getMaintenanceStatus()) &&
+                                        !GitRepository.isPartial(project) &&
+                                        (GitRepository.isMirror(project) || !GitRepository.isMirrorStorage());
+                            } catch ( Exception e ) {
+                                log.warn("Unable to list remote references of Project #" + project.getProjectId() + ": " + e.getMessage());
+                            }
+                        }
+                        // labor hours are only recalculated after changes
+                        if (!unchanged)
+                            p.setDateLastChanged(p.getDateLastMaintained());
                         
                         switch ( p.getRepositoryType() ) {
                             case Git:
+                                if (unchanged) {
+                                    p.setMaintenanceStatus(Project.Status.Complete);
+                                    p.setMaintenanceMessage("Remote unchanged; already up-to-date.");
+                                    break;
+                                }
+
+                                // complete any partial first-time clone before maintaining it
+                                try {
+                                    if (GitRepository.isPartial(project))
+                                        log.info("Project #" + project.getProjectId() + ": " + GitRepository.deepen(project));
+                                } catch ( Exception e ) {
+                                    log.warn("Deepen Error on #" + project.getProjectId(), e);
+                                    p.setMaintenanceStatus(Project.Status.Error);
+                                    p.setMaintenanceMessage(e.getMessage());
+                                    break;
+                                }
+
+                                // bare mirrors are only ever fetched; with mirror storage,
+                                // working-tree clones become mirrors first
+                                if (GitRepository.isMirrorStorage() || GitRepository.isMirror(project)) {
+                                    try {
+                                        if (!GitRepository.isMirror(project)) {
+                                            GitRepository.convertToMirror(project);
+                                            log.info("Converted Project #" + project.getProjectId() + " to a bare mirror.");
+                                        }
+
+                                        p.setMaintenanceMessage(GitRepository.fetch(project));
+                                        p.setMaintenanceStatus(Project.Status.Complete);
+                                    } catch ( Exception e ) {
+                                        log.warn("Sync Error on #" + project.getProjectId(), e);
+                                        p.setMaintenanceStatus(Project.Status.Error);
+                                        p.setMaintenanceMessage(e.getMessage());
+                                    }
+                                    break;
+                                }
+
                                 // do a fetch/pull on this
                                 try {
                                     String result = "Unknown Sync Error.";
@@ -80,7 +136,8 @@ public class RepositorySync extends Thread {
                                             forceReset = true;
                                             log.warn("PULL encountered MERGING issue on Project #" + project.getProjectId() + "! Forcing RESET!");
                                         }
-                                        else if (msg.toUpperCase().startsWith("REMOTE ORIGIN DID NOT ADVERTISE REF")) {
+                                        else if (msg.toUpperCase().startsWith("REMOTE ORIGIN DID NOT ADVERTISE REF") ||
+                                                 msg.toUpperCase().startsWith("UNABLE TO LOCATE REMOTE BRANCH")) {
                                             forceReset = true;
                                             forceCheckout = true;
                                             log.warn("PULL encountered REMOTE REF issue on Project #" + project.getProjectId() + "! Forcing RESET!");
@@ -151,6 +208,10 @@ public class RepositorySync extends Thread {
                                 p.setMaintenanceMessage("Unknown Repository Type: " + p.getRepositoryType().name());
                                 break;
                         }
+                        // remember the remote references a successful maintenance was from
+                        if (Project.RepositoryType.Git.equals(p.getRepositoryType()))
+                            p.setRemoteTips((Project.Status.Complete.equals(p.getMaintenanceStatus())) ? remoteTips : null);
+
                         // commit the result
                         em.getTransaction().commit();
                     }
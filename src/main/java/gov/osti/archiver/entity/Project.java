@@ -12,10 +12,12 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringWriter;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -35,6 +37,7 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.NamedQueries;
@@ -57,11 +60,13 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.osti.archiver.listener.ServletContextListener;
+import gov.osti.archiver.util.GitRepository;
 
 /**
  * The ARCHIVER Project entity.
@@ -78,14 +83,22 @@ import gov.osti.archiver.listener.ServletContextListener;
  * @author ensornl
  */
 @Entity
-@Table (name = "ARCHIVE_PROJECT")
+@Table (name = "ARCHIVE_PROJECT",
+        indexes = { @Index (name = "archive_project_file_sha256_idx", columnList = "file_sha256"),
+                    @Index (name = "archive_project_repository_key_idx", columnList = "repository_key", unique = true) })
 @JsonIgnoreProperties (ignoreUnknown = true)
 @NamedQueries ({
-    @NamedQuery (name = "Project.findByRepositoryLink", query = "SELECT p FROM Project p WHERE UPPER(p.repositoryLink) = UPPER(:url) ORDER BY p.dateRecordAdded"),
+    @NamedQuery (name = "Project.findByRepositoryKey", query = "SELECT p FROM Project p WHERE p.repositoryKey = :key"),
+    @NamedQuery (name = "Project.findByRepositoryKeys", query = "SELECT p FROM Project p WHERE p.repositoryKey IN :keys"),
+    @NamedQuery (name = "Project.findMissingRepositoryKeys", query = "SELECT p.projectId, p.repositoryLink FROM Project p WHERE p.repositoryKey IS NULL AND p.repositoryLink IS NOT NULL ORDER BY p.dateRecordAdded, p.projectId"),
+    @NamedQuery (name = "Project.findRepositoryKeys", query = "SELECT p.repositoryKey FROM Project p WHERE p.repositoryKey IS NOT NULL"),
+    @NamedQuery (name = "Project.findByFileSha256", query = "SELECT p FROM Project p WHERE p.fileSha256 = :hash AND p.isLimited = :limited AND p.projectId <> :id AND p.status <> :status ORDER BY p.dateRecordAdded"),
     @NamedQuery (name = "Project.findById", query = "SELECT p FROM Project p WHERE p.projectId = :id"),
     @NamedQuery (name = "Project.findByCodeId", query = "SELECT p FROM Project p JOIN p.codeIds c WHERE c.codeId IN :ids"),
     @NamedQuery (name = "Project.findLatestByCodeId", query = "SELECT p FROM Project p JOIN p.codeIds c WHERE c.codeId IN :ids AND p.repositoryType NOT IN :types ORDER BY c.dateRecordAdded DESC, p.projectId DESC"),
-    @NamedQuery (name = "Project.findLaborHourReady", query = "SELECT p FROM Project p WHERE p.status = :status and ((p.repositoryType NOT IN :typesNonFiles and p.dateLastMaintained IS NOT NULL and (p.dateLaborCalculated IS NULL or p.dateLaborCalculated < p.dateLastMaintained)) or (p.repositoryType IN :typesFiles and p.dateLaborCalculated IS NULL)) ORDER BY p.projectId"),
+    @NamedQuery (name = "Project.findLaborHourReady", query = "SELECT p FROM Project p WHERE p.status = :status and ((p.repositoryType NOT IN :typesNonFiles and p.dateLastMaintained IS NOT NULL and (p.dateLaborCalculated IS NULL or p.dateLaborCalculated < COALESCE(p.dateLastChanged, p.dateLastMaintained))) or (p.repositoryType IN :typesFiles and p.dateLaborCalculated IS NULL)) ORDER BY p.projectId"),
+    @NamedQuery (name = "Project.findPreviousByCodeId", query = "SELECT p FROM Project p JOIN p.codeIds c WHERE c.codeId IN :ids AND p.projectId <> :id AND p.isLimited = :limited AND p.repositoryType IN :types AND p.status = :status AND p.cacheFolder IS NOT NULL ORDER BY p.projectId DESC"),
+    @NamedQuery (name = "Project.findHousekeepingReady", query = "SELECT p FROM Project p WHERE p.status = :status AND p.repositoryType = :type AND p.cacheFolder IS NOT NULL AND COALESCE(p.dateLastHousekeeping, p.dateRecordAdded) < :before ORDER BY p.dateLastHousekeeping, p.projectId"),
     @NamedQuery (name = "Project.findByStatus", query = "SELECT p FROM Project p WHERE p.status = :status"),
     @NamedQuery (name = "Project.findByType", query = "SELECT p FROM Project p WHERE p.repositoryType = :type and p.status = :status"),
     @NamedQuery (name = "Project.countByType", query = "SELECT COUNT(p) FROM Project p WHERE p.repositoryType = :type and p.status = :status"),
@@ -125,6 +138,67 @@ public class Project implements Serializable {
         this.repositoryLink = repositoryLink;
     }
 
+    /**
+     * Get the normalized key of the REPOSITORY LINK, unique to each Project
+     * (see toRepositoryKey).  Set when the Project is first stored.
+     *
+     * @return the repositoryKey, or null if none
+     */
+    @JsonIgnore
+    public String getRepositoryKey() {
+        return repositoryKey;
+    }
+
+    /**
+     * Normalize a REPOSITORY LINK into the key Projects are matched by: the
+     * scheme and any user information removed, the host name lower-cased, and
+     * any trailing slashes or .git suffix removed.  So
+     * "https://GitHub.com/owner/Project.git/" and "github.com/owner/Project"
+     * share the key "github.com/owner/Project".
+     *
+     * @param link the REPOSITORY LINK
+     * @return the normalized key, or null if no link
+     */
+    public static String toRepositoryKey(String link) {
+        if (StringUtils.isEmptyOrNull(link) || link.trim().isEmpty())
+            return null;
+
+        String key = link.trim()
+                .replaceFirst("^[A-Za-z][A-Za-z0-9+.-]*://", "")
+                .replaceFirst("(?:/|[.]git)+$", "");
+        int slash = key.indexOf('/');
+        String host = (slash < 0) ? key : key.substring(0, slash);
+
+        return host.substring(host.lastIndexOf('@') + 1).toLowerCase() +
+                ((slash < 0) ? "" : key.substring(slash));
+    }
+
+    /**
+     * The REPOSITORY KEY marking a Project the key migration left unmatched,
+     * as it shares its key with an earlier Project, or has no link to key.
+     * No normalized key ends with a slash, so no archive request matches it.
+     *
+     * @param projectId the PROJECT ID
+     * @return the unmatched key, unique to the Project
+     */
+    public static String toUnmatchedKey(Long projectId) {
+        return "unmatched/" + projectId + "/";
+    }
+
+    /**
+     * Complete a REPOSITORY LINK lacking a protocol as an HTTPS one, so that
+     * "github.com/owner/repo" is archived from "https://github.com/owner/repo".
+     *
+     * @param link the REPOSITORY LINK as requested
+     * @return the link with a protocol, or as given if empty
+     */
+    public static String toRepositoryLink(String link) {
+        if (StringUtils.isEmptyOrNull(link) || link.startsWith("http"))
+            return link;
+
+        return "https://" + link;
+    }
+
     /**
      * Get the FILE NAME associated with this Project.
      * For serialization, only emit the base file name itself.
@@ -143,6 +217,20 @@ public class Project implements Serializable {
         this.fileName = fileName;
     }
 
+    /**
+     * @return the hexadecimal SHA-256 digest of the uploaded file, if any
+     */
+    public String getFileSha256() {
+        return fileSha256;
+    }
+
+    /**
+     * @param fileSha256 the fileSha256 to set
+     */
+    public void setFileSha256(String fileSha256) {
+        this.fileSha256 = fileSha256;
+    }
+
     /**
      * @return the status
      */
@@ -264,6 +352,65 @@ public class Project implements Serializable {
         this.setDateLastMaintained(new Date());
     }
 
+    /**
+     * Obtain the Date this Project was last maintained from a changed remote,
+     * as opposed to found unchanged and skipped.  Labor hours are recalculated
+     * after it.
+     * @return the dateLastChanged, or null if not since recorded
+     */
+    public Date getDateLastChanged() {
+        return dateLastChanged;
+    }
+
+    /**
+     * Set the DATE LAST CHANGED value
+     * @param dateLastChanged the dateLastChanged to set
+     */
+    public void setDateLastChanged(Date dateLastChanged) {
+        this.dateLastChanged = dateLastChanged;
+    }
+
+    /**
+     * Obtain the Date this Project's git cache was last repacked and pruned.
+     * @return the dateLastHousekeeping, or null if never
+     */
+    public Date getDateLastHousekeeping() {
+        return dateLastHousekeeping;
+    }
+
+    /**
+     * Set the DATE LAST HOUSEKEEPING value
+     * @param dateLastHousekeeping the dateLastHousekeeping to set
+     */
+    public void setDateLastHousekeeping(Date dateLastHousekeeping) {
+        this.dateLastHousekeeping = dateLastHousekeeping;
+    }
+
+    /**
+     * Set the DATE LAST HOUSEKEEPING to now.
+     */
+    public void setDateLastHousekeeping() {
+        this.setDateLastHousekeeping(new Date());
+    }
+
+    /**
+     * Obtain the remote reference tips this Project's git cache was last
+     * successfully maintained from, one "SHA name" line per reference (see
+     * GitRepository.listRemoteTips).
+     * @return the remoteTips, or null if unknown
+     */
+    @JsonIgnore
+    public String getRemoteTips() {
+        return remoteTips;
+    }
+
+    /**
+     * @param remoteTips the remoteTips to set
+     */
+    public void setRemoteTips(String remoteTips) {
+        this.remoteTips = remoteTips;
+    }
+
     /**
      * @return the maintenanceStatus
      */
@@ -508,6 +655,7 @@ public class Project implements Serializable {
     void createdAt() {
         setDateRecordAdded();
         setDateRecordUpdated();
+        repositoryKey = toRepositoryKey(repositoryLink);
     }
 
     /**
@@ -526,8 +674,12 @@ public class Project implements Serializable {
     private Long projectId;
     @Column (length = 1000, name = "repository_link")
     private String repositoryLink;
+    @Column (length = 1000, name = "repository_key")
+    private String repositoryKey;
     @Column (length = 1000, name = "file_name")
     private String fileName;
+    @Column (length = 64, name = "file_sha256")
+    private String fileSha256;
     @Column (length = 50, name = "status")
     @Enumerated (EnumType.STRING)
     private Status status = Status.Pending; // default value
@@ -551,6 +703,17 @@ public class Project implements Serializable {
     @JsonFormat (shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd", timezone = "EST")
     @Temporal (TemporalType.TIMESTAMP)
     private Date dateLastMaintained;
+    @Column (name = "date_last_changed", insertable = true, updatable = true)
+    @JsonFormat (shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd", timezone = "EST")
+    @Temporal (TemporalType.TIMESTAMP)
+    private Date dateLastChanged;
+    @Column (name = "date_last_housekeeping", insertable = true, updatable = true)
+    @JsonFormat (shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd", timezone = "EST")
+    @Temporal (TemporalType.TIMESTAMP)
+    private Date dateLastHousekeeping;
+    @Lob
+    @Column (name = "remote_tips")
+    private String remoteTips;
     @Column (length = 50, name = "maintenance_status")
     @Enumerated (EnumType.STRING)
     private Status maintenanceStatus;
@@ -628,7 +791,12 @@ public class Project implements Serializable {
             String stdErr = null;
 
             try {
-                pb = new ProcessBuilder("perl", CLOC, "--json", getCacheFolder());
+                // count a bare mirror's HEAD, as it has no working tree
+                if (GitRepository.isBare(Paths.get(getCacheFolder())))
+                    pb = new ProcessBuilder("perl", CLOC, "--json", "--git", Constants.HEAD)
+                            .directory(new File(getCacheFolder()));
+                else
+                    pb = new ProcessBuilder("perl", CLOC, "--json", getCacheFolder());
 
                 proc = pb.start();
                 
@@ -4,18 +4,28 @@ package gov.osti.archiver.listener;
 
 import gov.osti.archiver.Archiver;
 import gov.osti.archiver.Maintainer;
+import gov.osti.archiver.Housekeeper;
 import gov.osti.archiver.LaborCalculator;
 import gov.osti.archiver.LaborHoursSync;
 import gov.osti.archiver.entity.Project;
+import gov.osti.archiver.util.PooledHttpConnectionFactory;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 import javax.servlet.ServletContextEvent;
+import org.eclipse.jgit.transport.HttpTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,8 +46,14 @@ public class ServletContextListener implements javax.servlet.ServletContextListe
     private static Properties configuration;
     // name of properties configuration file on the classpath
     private static final String PROPERTIES_FILE = "archiver.properties";
+    // number of Projects keyed in each transaction of the key migration
+    private static final int MIGRATION_BATCH_SIZE = 500;
     // background Thread pool for archive processing
     private static ExecutorService threadPool;
+    // Thread pool for reading and storing uploads off the request threads
+    private static ExecutorService uploadPool;
+    // pooled HTTP connections for git remote operations
+    private static PooledHttpConnectionFactory gitConnections;
     
     /**
      * Obtain the named configuration property from the "properties"
@@ -68,7 +84,25 @@ public class ServletContextListener implements javax.servlet.ServletContextListe
                 "" : configuration.getProperty(key) :
                 "";
     }
-    
+
+    /**
+     * Obtain the named configuration property as a numeric value, if possible.
+     *
+     * @param key the KEY name requested
+     * @param defaultValue the VALUE to use if not set or not numeric
+     * @return the configured numeric VALUE, or the default
+     */
+    public static long getConfigurationProperty(String key, long defaultValue) {
+        String value = getConfigurationProperty(key).trim();
+
+        try {
+            return (value.isEmpty()) ? defaultValue : Long.parseLong(value);
+        } catch ( NumberFormatException e ) {
+            log.warn("Invalid numeric configuration value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
     /**
      * Background Thread to perform Archive processes out-of-band.
      * 
@@ -82,6 +116,16 @@ public class ServletContextListener implements javax.servlet.ServletContextListe
         threadPool.submit(new Archiver(project));        
     }
     
+    /**
+     * Queue several Projects to the background Archive Thread pool at once.
+     * 
+     * @param projects the Projects to archive
+     */
+    public static void callArchiver(Collection<Project> projects) {
+        for ( Project project : projects )
+            callArchiver(project);
+    }
+    
     public static void callLaborCalculation(Project project) {
         if (null==threadPool) {
             threadPool = Executors.newFixedThreadPool(5);
@@ -90,6 +134,35 @@ public class ServletContextListener implements javax.servlet.ServletContextListe
         threadPool.submit(new LaborHoursSync(project, LaborCalculator.getInstance()));
     }
 
+    /**
+     * Run an upload transfer on the upload I/O Thread pool, so the request
+     * Thread is free while the upload is read and stored.  If no upload
+     * Threads are configured, runs it on the calling Thread.
+     *
+     * @param task the upload transfer to run
+     */
+    public static void callUpload(Runnable task) {
+        int threads = (int) getConfigurationProperty("upload.threads", 4);
+
+        if (threads <= 0)
+            task.run();
+        else
+            getUploadPool(threads).submit(task);
+    }
+
+    /**
+     * Obtain the upload I/O Thread pool, creating it if needed.
+     *
+     * @param threads the number of Threads to create
+     * @return the upload Thread pool
+     */
+    private static synchronized ExecutorService getUploadPool(int threads) {
+        if (null==uploadPool) {
+            uploadPool = Executors.newFixedThreadPool(threads);
+        }
+        return uploadPool;
+    }
+
     /**
      * Called on application startup.
      * 
@@ -102,10 +175,114 @@ public class ServletContextListener implements javax.servlet.ServletContextListe
         // attempt to load the persistence layer
         String persistence_unit = sce.getServletContext().getInitParameter("persistence_unit");
         emf = Persistence.createEntityManagerFactory(persistence_unit);
+
+        // share kept-alive HTTP connections across git remote operations
+        int connections = (int) getConfigurationProperty("git.http.connections", 0);
+        if (connections > 0) {
+            gitConnections = new PooledHttpConnectionFactory(connections);
+            HttpTransport.setConnectionFactory(gitConnections);
+        }
+
+        // key any Projects stored before REPOSITORY KEYS were kept
+        try {
+            migrateRepositoryKeys();
+        } catch ( Exception e ) {
+            log.warn("Unable to set repository keys: " + e.getMessage());
+        }
+        // index the lookups of new archive requests on tables made before them
+        createIndex("CREATE UNIQUE INDEX IF NOT EXISTS archive_project_repository_key_idx ON archive_project (repository_key)");
+        createIndex("CREATE INDEX IF NOT EXISTS archive_project_file_sha256_idx ON archive_project (file_sha256)");
+
+        // pick up any archive extractions interrupted by shutdown
+        try {
+            Archiver.resumeInterrupted();
+        } catch ( Exception e ) {
+            log.warn("Unable to resume interrupted extractions: " + e.getMessage());
+        }
         
         log.info("Archiver services started.");
     }
 
+
+    /**
+     * Backfill the REPOSITORY KEY of any Projects stored without one.
+     *
+     * Where several Projects share a key, only the earliest is keyed, being the
+     * one new archive requests for that repository have always matched; the
+     * others are given an unmatched key, so that once done no Project is left
+     * to migrate on later startups.  Updates are sent in JDBC batches, one
+     * transaction each, bypassing the entities so the Projects' update dates
+     * are left alone.
+     */
+    private static void migrateRepositoryKeys() throws SQLException {
+        EntityManager em = createEntityManager();
+
+        try {
+            List<Object[]> missing = em.createNamedQuery("Project.findMissingRepositoryKeys", Object[].class)
+                    .getResultList();
+
+            if (!missing.isEmpty()) {
+                Set<String> keys = new HashSet<>(em.createNamedQuery("Project.findRepositoryKeys", String.class)
+                        .getResultList());
+                int count = 0;
+
+                for ( int start = 0; start < missing.size(); start += MIGRATION_BATCH_SIZE ) {
+                    em.getTransaction().begin();
+                    // the JDBC connection of the transaction
+                    Connection connection = em.unwrap(Connection.class);
+
+                    try (PreparedStatement update = connection.prepareStatement(
+                            "UPDATE archive_project SET repository_key = ? WHERE project_id = ?")) {
+                        for ( Object[] row : missing.subList(start, Math.min(start + MIGRATION_BATCH_SIZE, missing.size())) ) {
+                            Long projectId = (Long) row[0];
+                            String key = Project.toRepositoryKey((String) row[1]);
+
+                            if (null!=key && keys.add(key))
+                                ++count;
+                            else
+                                key = Project.toUnmatchedKey(projectId);
+
+                            update.setString(1, key);
+                            update.setLong(2, projectId);
+                            update.addBatch();
+                        }
+                        update.executeBatch();
+                    }
+                    em.getTransaction().commit();
+                }
+
+                log.info("Set repository keys of " + count + " of " + missing.size() + " projects.");
+            }
+        } finally {
+            if (em.getTransaction().isActive())
+                em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    /**
+     * Create an index on an existing table, if not there already, as extending
+     * the table only adds its new columns.  The DDL is native, and requires
+     * PostgreSQL (9.5 or later); on failure the index is left to be created
+     * by hand, and a warning logged.
+     *
+     * @param ddl the CREATE INDEX IF NOT EXISTS statement
+     */
+    private static void createIndex(String ddl) {
+        EntityManager em = createEntityManager();
+
+        try {
+            em.getTransaction().begin();
+            em.createNativeQuery(ddl).executeUpdate();
+            em.getTransaction().commit();
+        } catch ( Exception e ) {
+            log.warn("Unable to create index (" + ddl + "): " + e.getMessage());
+        } finally {
+            if (em.getTransaction().isActive())
+                em.getTransaction().rollback();
+            em.close();
+        }
+    }
    
     /**
      * Called when application is shut down.
@@ -122,8 +299,17 @@ public class ServletContextListener implements javax.servlet.ServletContextListe
             emf.close();
         if (null!=threadPool)
             threadPool.shutdown();
+        if (null!=uploadPool)
+            uploadPool.shutdown();
+        if (null!=gitConnections)
+            try {
+                gitConnections.close();
+            } catch ( IOException e ) {
+                log.warn("Unable to close git connections: " + e.getMessage());
+            }
         Maintainer.close();
         LaborCalculator.close();
+        Housekeeper.close();
     }
     
     /**
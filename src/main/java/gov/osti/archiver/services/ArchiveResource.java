@@ -3,6 +3,10 @@
 package gov.osti.archiver.services;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
@@ -12,28 +16,50 @@ import gov.osti.archiver.entity.ArchiveRequest;
 import gov.osti.archiver.entity.Project;
 import gov.osti.archiver.entity.Project.RepositoryType;
 import gov.osti.archiver.listener.ServletContextListener;
+import gov.osti.archiver.util.BlobStore;
+import gov.osti.archiver.util.ExtractionLimitException;
 import gov.osti.archiver.util.Extractor;
+import gov.osti.archiver.util.Packer;
+import gov.osti.archiver.util.UploadSession;
+import gov.osti.archiver.util.ZipIndex;
 import gov.osti.archiver.Maintainer;
+import gov.osti.archiver.Housekeeper;
 import gov.osti.archiver.LaborCalculator;
 import gov.osti.archiver.Archiver;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.BufferedInputStream;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.function.Supplier;
 
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
 import javax.persistence.PersistenceException;
 import javax.persistence.RollbackException;
 import javax.persistence.TypedQuery;
@@ -41,14 +67,22 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import org.apache.commons.compress.archivers.ArchiveException;
-import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.util.StringUtils;
 import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
 import org.glassfish.jersey.media.multipart.FormDataParam;
@@ -60,6 +94,7 @@ import org.slf4j.LoggerFactory;
  * 
  * GET /project/{codeId} -- retrieve existing Project if possible
  * POST /project -- store and archive a new Project
+ * POST /project/upload -- start a chunked, resumable file upload
  * 
  * @author ensornl
  */
@@ -70,6 +105,14 @@ public class ArchiveResource {
     // base filesystem path to save information into
     private static String FILE_BASEDIR = ServletContextListener.getConfigurationProperty("file.archive");
     private static String FILE_LIMITED_BASEDIR = ServletContextListener.getConfigurationProperty("file.limited.archive");
+    // extract streamable archive uploads while storing them
+    private static boolean EXTRACT_ON_UPLOAD = Boolean.parseBoolean(ServletContextListener.getConfigurationProperty("upload.extract"));
+    
+    // most REPOSITORY KEYS looked up in a single query of a batch request
+    private static final int BATCH_QUERY_SIZE = 500;
+    
+    // a single byte range of a Range request header
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
     
     // XML/JSON mapper reference
     private static final ObjectMapper mapper = new ObjectMapper()
@@ -397,6 +440,334 @@ public class ArchiveResource {
         }
     }
     
+    /**
+     * Look up the archive file of a Project.  The files of limited Projects
+     * are never served, so are never found.
+     * 
+     * @param em the EntityManager to use
+     * @param projectId the PROJECT ID
+     * @return the archive file Path, or null if no Project, a limited
+     * Project, or no file on hand
+     */
+    private static java.nio.file.Path findArchiveFile(EntityManager em, Long projectId) {
+        Project project = em.find(Project.class, projectId);
+
+        if (null==project || project.getIsLimited() || StringUtils.isEmptyOrNull(project.getFileName()))
+            return null;
+
+        java.nio.file.Path file = Paths.get(project.getFileName());
+        return Files.isRegularFile(file) ? file : null;
+    }
+    
+    /**
+     * Set the content type of a Response, for error responses from
+     * non-JSON endpoints.
+     * 
+     * @param response the Response
+     * @param type the media type to use
+     * @return the Response with its content type set
+     */
+    private static Response withType(Response response, MediaType type) {
+        return Response.fromResponse(response).type(type).build();
+    }
+    
+    /**
+     * List the entries of a Project's zip archive, read from its central
+     * directory without extracting anything.
+     * 
+     * Response Codes:
+     * 200 - OK, JSON array of entries
+     * 400 - the Project archive is not a zip file
+     * 404 - Project not on file, limited, or has no archive file
+     * 500 - JSON processing error
+     * 
+     * @param projectId the PROJECT ID
+     * @return JSON array of archive entries
+     */
+    @GET
+    @Path ("{projectId}/entries")
+    @Produces (MediaType.APPLICATION_JSON)
+    public Response listEntries(@PathParam ("projectId") Long projectId) {
+        EntityManager em = ServletContextListener.createEntityManager();
+        
+        try {
+            java.nio.file.Path file = findArchiveFile(em, projectId);
+
+            if (null==file)
+                return ErrorResponse
+                        .notFound("Indicated Project archive not on file.")
+                        .build();
+
+            try (ZipIndex index = new ZipIndex(file)) {
+                return Response
+                        .ok()
+                        .entity(mapper.writeValueAsString(index.getEntries()))
+                        .build();
+            }
+        } catch ( JsonProcessingException e ) {
+            log.warn("JSON Error", e);
+            return ErrorResponse
+                    .internalServerError("JSON processing error.")
+                    .build();
+        } catch ( IOException e ) {
+            return ErrorResponse
+                    .badRequest("Unable to read archive: " + e.getMessage())
+                    .build();
+        } finally {
+            em.close();
+        }
+    }
+    
+    /**
+     * Obtain the content of a single entry of a Project's zip archive, read
+     * straight from the archive without extracting anything else.
+     * 
+     * Response Codes:
+     * 200 - OK, the entry content
+     * 400 - the Project archive is not a zip file
+     * 404 - Project not on file, limited, has no archive file, or no such file entry
+     * 
+     * @param projectId the PROJECT ID
+     * @param path the entry path name within the archive
+     * @return the entry content
+     */
+    @GET
+    @Path ("{projectId}/entries/{path: .+}")
+    @Produces (MediaType.APPLICATION_OCTET_STREAM)
+    public Response getEntry(@PathParam ("projectId") Long projectId, @PathParam ("path") String path) {
+        EntityManager em = ServletContextListener.createEntityManager();
+        java.nio.file.Path file;
+        
+        try {
+            file = findArchiveFile(em, projectId);
+        } finally {
+            em.close();
+        }
+
+        if (null==file)
+            return withType(ErrorResponse
+                    .notFound("Indicated Project archive not on file.")
+                    .build(), MediaType.APPLICATION_JSON_TYPE);
+
+        ZipIndex index;
+        try {
+            index = new ZipIndex(file);
+        } catch ( IOException e ) {
+            return withType(ErrorResponse
+                    .badRequest("Unable to read archive: " + e.getMessage())
+                    .build(), MediaType.APPLICATION_JSON_TYPE);
+        }
+
+        ZipIndex.Entry entry = index.getEntry(path);
+        if (null==entry || entry.isDirectory()) {
+            try{index.close();} catch (Exception e) {}
+            return withType(ErrorResponse
+                    .notFound("Archive entry not found: " + path)
+                    .build(), MediaType.APPLICATION_JSON_TYPE);
+        }
+
+        // stream the entry, releasing the archive when done
+        StreamingOutput content = (out) -> {
+            try (ZipIndex zip = index; InputStream in = zip.getInputStream(entry)) {
+                IOUtils.copy(in, out);
+            }
+        };
+
+        return Response
+                .ok(content)
+                .header("Content-Length", entry.getSize())
+                .header("Content-Disposition", "attachment; filename=\"" +
+                        entry.getName().substring(entry.getName().lastIndexOf('/') + 1).replace("\"", "") + "\"")
+                .build();
+    }
+    
+    /**
+     * Download a Project's files: its original uploaded file, or a tar.gz
+     * (or tar.zst) of its cache folder built as it is sent.  The files of
+     * limited Projects are never served.
+     * 
+     * Uploaded files support single byte Range requests (with If-Range) so an
+     * interrupted download may resume, and carry an ETag (the file SHA-256
+     * digest, where known) for If-None-Match.  Cache folder archives are
+     * built on the fly, so neither applies to them.
+     * 
+     * Response Codes:
+     * 200 - OK, the file content
+     * 206 - PARTIAL CONTENT, the requested range of the file content
+     * 304 - NOT MODIFIED, the file matches the If-None-Match ETag
+     * 404 - Project not on file, limited, or no file or cache folder on hand
+     * 416 - RANGE NOT SATISFIABLE, the requested range is past the end of the file
+     * 
+     * @param projectId the PROJECT ID
+     * @param cache if true, download the cache folder even if there is an uploaded file
+     * @param format (optional) "zst" for a tar.zst cache folder archive; otherwise tar.gz
+     * @param range (optional) the requested byte range
+     * @param ifRange (optional) the ETag the requested range applies to
+     * @param request the Request, for evaluating preconditions
+     * @return the file content
+     */
+    @GET
+    @Path ("{projectId}/download")
+    @Produces (MediaType.APPLICATION_OCTET_STREAM)
+    public Response download(@PathParam ("projectId") Long projectId, @QueryParam ("cache") boolean cache, @QueryParam ("format") String format,
+            @HeaderParam ("Range") String range, @HeaderParam ("If-Range") String ifRange, @Context Request request) {
+        EntityManager em = ServletContextListener.createEntityManager();
+        Project project;
+        
+        try {
+            project = em.find(Project.class, projectId);
+        } finally {
+            em.close();
+        }
+
+        if (null==project || project.getIsLimited())
+            return withType(ErrorResponse
+                    .notFound("Indicated Project not on file.")
+                    .build(), MediaType.APPLICATION_JSON_TYPE);
+
+        try {
+            // the original upload, if on hand
+            if (!cache && !StringUtils.isEmptyOrNull(project.getFileName()) && Files.isRegularFile(Paths.get(project.getFileName())))
+                return downloadFile(Paths.get(project.getFileName()), project.getFileSha256(), range, ifRange, request);
+
+            if (StringUtils.isEmptyOrNull(project.getCacheFolder()) || !Files.isDirectory(Paths.get(project.getCacheFolder())))
+                return withType(ErrorResponse
+                        .notFound("Indicated Project has no files on hand.")
+                        .build(), MediaType.APPLICATION_JSON_TYPE);
+
+            // leave out any upload kept alongside its extracted content
+            java.nio.file.Path folder = Paths.get(project.getCacheFolder());
+            Set<java.nio.file.Path> exclude = new HashSet<>();
+            if (!StringUtils.isEmptyOrNull(project.getFileName()))
+                exclude.addAll(Extractor.getArchiveFiles(project.getFileName()));
+
+            boolean zstd = "zst".equalsIgnoreCase(format);
+            StreamingOutput content = (zstd) ?
+                    (out) -> Packer.writeTarZstd(folder, exclude, out) :
+                    (out) -> Packer.writeTarGz(folder, exclude, out);
+
+            return Response
+                    .ok(content)
+                    .type((zstd) ? "application/zstd" : "application/gzip")
+                    .header("Accept-Ranges", "none")
+                    .header("Content-Disposition", "attachment; filename=\"" + projectId + ((zstd) ? ".tar.zst" : ".tar.gz") + "\"")
+                    .build();
+        } catch ( IOException e ) {
+            log.warn("Download Error for Project " + projectId + ": " + e.getMessage());
+            return withType(ErrorResponse
+                    .internalServerError("Unable to read Project files.")
+                    .build(), MediaType.APPLICATION_JSON_TYPE);
+        }
+    }
+    
+    /**
+     * Send a file, or the requested byte range of it, with FileChannel
+     * transfers.
+     * 
+     * @param file the file to send
+     * @param sha256 the hexadecimal SHA-256 digest of the file, or null if unknown
+     * @param range (optional) the requested byte range
+     * @param ifRange (optional) the ETag the requested range applies to
+     * @param request the Request, for evaluating preconditions
+     * @return the Response sending the file
+     * @throws IOException on file IO errors
+     */
+    private static Response downloadFile(java.nio.file.Path file, String sha256, String range, String ifRange, Request request) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        EntityTag tag = new EntityTag(StringUtils.isEmptyOrNull(sha256) ?
+                Long.toHexString(size) + "-" + Long.toHexString(modified) : sha256);
+
+        // If-None-Match (and If-Match)
+        Response.ResponseBuilder precondition = request.evaluatePreconditions(tag);
+        if (null!=precondition)
+            return precondition.build();
+
+        // a range only applies to the same content it was asked of
+        long[] bounds = (null==ifRange || ifRange.equals(tag.toString())) ? parseRange(range, size) : null;
+
+        if (null!=bounds && bounds[0] < 0)
+            return Response
+                    .status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + size)
+                    .build();
+
+        long start = (null==bounds) ? 0 : bounds[0];
+        long length = (null==bounds) ? size : bounds[1] - bounds[0] + 1;
+
+        StreamingOutput content = (out) -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = start;
+                long remaining = length;
+
+                while (remaining > 0) {
+                    long sent = channel.transferTo(position, remaining, target);
+
+                    // the file was cut short meanwhile
+                    if (sent <= 0)
+                        break;
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+        };
+
+        Response.ResponseBuilder response = (null==bounds) ?
+                Response.ok(content) :
+                Response.status(Response.Status.PARTIAL_CONTENT)
+                        .entity(content)
+                        .header("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+
+        return response
+                .tag(tag)
+                .lastModified(new Date(modified))
+                .header("Accept-Ranges", "bytes")
+                .header("Content-Length", length)
+                .header("Content-Disposition", "attachment; filename=\"" + file.getFileName().toString().replace("\"", "") + "\"")
+                .build();
+    }
+    
+    /**
+     * Interpret a single byte Range request header: "bytes=first-last",
+     * "bytes=first-" or "bytes=-suffix".  Multiple ranges, or any other unit,
+     * are not supported, and the whole file is sent instead.
+     * 
+     * @param range the Range header value, or null if none
+     * @param size the file size
+     * @return the first and last bytes of the range, {-1, -1} if the range
+     * is not satisfiable, or null to send the whole file
+     */
+    private static long[] parseRange(String range, long size) {
+        Matcher m = (null==range) ? null : RANGE.matcher(range.trim());
+
+        if (null==m || !m.matches() || (m.group(1).isEmpty() && m.group(2).isEmpty()))
+            return null;
+
+        try {
+            if (m.group(1).isEmpty()) {
+                // the last suffix bytes
+                long suffix = Long.parseLong(m.group(2));
+
+                return (0 == suffix || 0 == size) ?
+                        new long[] { -1, -1 } :
+                        new long[] { Math.max(0, size - suffix), size - 1 };
+            }
+
+            long first = Long.parseLong(m.group(1));
+            long last = m.group(2).isEmpty() ? Long.MAX_VALUE : Long.parseLong(m.group(2));
+
+            if (last < first)
+                return null;
+
+            return (first >= size) ?
+                    new long[] { -1, -1 } :
+                    new long[] { first, Math.min(last, size - 1) };
+        } catch ( NumberFormatException e ) {
+            return null;
+        }
+    }
+    
     /**
      * DELETE orphaned PROJECT mappings from the indicated CODE ID from DOECODE.
      * 
@@ -462,6 +833,21 @@ public class ArchiveResource {
                 em.merge(p);
             } 
             em.getTransaction().commit();
+
+            // release any stored blobs the removed files were the last links to
+            if (BlobStore.isEnabled() && !resultsRemove.isEmpty()) {
+                Set<String> baseDirs = new HashSet<>();
+                for ( Project p : resultsRemove )
+                    baseDirs.add(p.getIsLimited() ? FILE_LIMITED_BASEDIR : FILE_BASEDIR);
+
+                for ( String baseDir : baseDirs )
+                    try {
+                        BlobStore.collect(baseDir);
+                    } catch ( IOException e ) {
+                        log.warn("Unable to collect blob store in " + baseDir + ": " + e.getMessage());
+                    }
+            }
+
             info.put("code_id", codeId);
             info.put("deleted_by", user);
             info.put("projects_deleted", resultsRemove.size());
@@ -515,10 +901,11 @@ public class ArchiveResource {
      * @param fileInfo (optional) if present, the filename disposition of the file
      * @param container (optional) a file, assumed to be a container image for the project
      * @param containerInfo (optional) if present, the filename disposition of the container
+     * @param upload (optional) the finished chunked upload the file reads, moved into the Project folder rather than copied
      * @return 
      */
     private Response doArchive(String json, InputStream file, FormDataContentDisposition fileInfo
-            , InputStream container, FormDataContentDisposition containerInfo) {
+            , InputStream container, FormDataContentDisposition containerInfo, java.nio.file.Path upload) {
         EntityManager em = ServletContextListener.createEntityManager();
         
         try {
@@ -530,6 +917,9 @@ public class ArchiveResource {
                         .badRequest("Missing required Code ID value.")
                         .build();
 
+            // FORCE protocol if not present
+            ar.setRepositoryLink(Project.toRepositoryLink(ar.getRepositoryLink()));
+
             //  construct a new PROJECT
             Project projectContainer = null;
             Project project = new Project();
@@ -554,35 +944,30 @@ public class ArchiveResource {
 
             // do we have a REPOSITORY LINK?
             if (!StringUtils.isEmptyOrNull(ar.getRepositoryLink())) {
-                // FORCE protocol if not present
-                if (!ar.getRepositoryLink().startsWith("http"))
-                    ar.setRepositoryLink("https://" + ar.getRepositoryLink());
+                // see if it's ALREADY been cached, by its normalized key
+                String key = Project.toRepositoryKey(ar.getRepositoryLink());
+                Project p = findByRepositoryKey(em, key);
 
-                // trim any slash or .git suffix before searching
-                String targetRepo = ar.getRepositoryLink().replaceFirst("(?:\\/|[.]git)?$", "");
+                if (null==p) {
+                    // no such thing, go ahead and create a PROJECT to hold this
+                    project.setStatus(Project.Status.Pending);
 
-                // see if it's ALREADY been cached
-                TypedQuery<Project> query = em.createNamedQuery("Project.findByRepositoryLink", Project.class)
-                        .setParameter("url", targetRepo);
-                
-                try {
-                    List<Project> pList = query.getResultList();
+                    try {
+                        em.persist(project); // get the UUID
+                        em.flush();
+                    } catch ( PersistenceException e ) {
+                        // a concurrent request for this repository stored it first; use that one
+                        em.getTransaction().rollback();
+                        em.clear();
+                        em.getTransaction().begin();
 
-                    if (pList.isEmpty()) {
-                        // prime repo missing, check for .git version
-                        targetRepo = targetRepo.replaceFirst("(?:\\/|[.]git)?$", ".git");
-
-                        query = em.createNamedQuery("Project.findByRepositoryLink", Project.class)
-                            .setParameter("url", targetRepo);
-                            
-                        pList = query.getResultList();
+                        p = findByRepositoryKey(em, key);
+                        if (null==p)
+                            throw e;
                     }
+                }
 
-                    if (pList.isEmpty())
-                        throw new NoResultException();
-
-                    Project p = pList.get(0);
-                    
+                if (null!=p) {
                     // may need to add this CODE ID if multiple projects post to this
                     if ( p.addCodeId(ar.getCodeId()) ) {
                         // added one, merge it in
@@ -595,50 +980,68 @@ public class ArchiveResource {
                             .ok()
                             .entity(p.toJson())
                             .build();
-                } catch ( NoResultException e ) {
-                    // this is expected if not on file already, proceed
                 }
-                // no such thing, go ahead and create a PROJECT to hold this
-                project.setStatus(Project.Status.Pending);
-                
-                em.persist(project); // get the UUID
                 
             } else if (null!=file) {
-                // we have a FILE to do; create a PROJECT and store it
+                // we have a FILE to do; create a PROJECT to store it in
                 em.persist(project); // get us a PROJECT ID
                 project.setSendFileNotification(true);
-                
-                // attempt to store and extract the archive file
-                try (BufferedInputStream bis = Extractor.detectArchiveFormat(file, fileInfo.getFileName())) {
-                    // ensure we can tell what sort of archive we have
-                    if (null==ArchiveStreamFactory.detect(bis)) {
-                        throw new ArchiveException("Invalid or unknown archive format.");
+            }
+
+            // handle containers
+            if (null!=container) {
+                // we have a CONTAINER to do; create a PROJECT to store it in
+                projectContainer = new Project();
+                projectContainer.addCodeId(ar.getCodeId());
+                projectContainer.setIsLimited(ar.getIsLimited());
+
+                em.persist(projectContainer); // get us a PROJECT ID
+            }
+
+            // commit the new PROJECT(s) before reading any uploads, so no
+            // transaction stays open for the length of a transfer
+            em.getTransaction().commit();
+
+            if (null!=file) {
+                // attempt to store and extract the archive file; detection
+                // ensures we can tell what sort of archive we have first, and
+                // the content is hashed in the same read
+                try {
+                    String fileName = null;
+
+                    try (DigestInputStream dis = new DigestInputStream(file, newSha256());
+                         BufferedInputStream bis = Extractor.detectArchiveFormat(dis, fileInfo.getFileName())) {
+                        // a finished chunked upload is only hashed where it is
+                        if (null!=upload)
+                            IOUtils.consume(bis);
+                        else
+                            fileName = (EXTRACT_ON_UPLOAD && Extractor.isStreamable(bis)) ?
+                                    saveAndExtractFile(bis, project, fileInfo.getFileName()) :
+                                    saveFile(bis, project.getProjectId(), fileInfo.getFileName(), project.getIsLimited());
+
+                        project.setFileSha256(String.format("%064x", new BigInteger(1, dis.getMessageDigest().digest())));
                     }
-                    String fileName = saveFile(bis, project.getProjectId(), fileInfo.getFileName(), project.getIsLimited());
+                    // a finished chunked upload is already on disk; only move it into place
+                    if (null!=upload)
+                        fileName = moveFile(upload, project.getProjectId(), fileInfo.getFileName(), project.getIsLimited());
 
                     project.setFileName(fileName);
                 } catch ( ArchiveException e ) {
                     log.warn("Invalid Archive for " + fileInfo.getFileName() + ": " + e.getMessage());
+                    failUpload(em, "Archive Error: " + e.getMessage(), project, projectContainer);
                     return ErrorResponse
                             .badRequest("Unrecognized archive file type, unsupported format.")
                             .build();
                 } catch ( IOException e ) {
                     log.error ("File Upload Failed: " + e.getMessage());
+                    failUpload(em, "File upload failed.", project, projectContainer);
                     return ErrorResponse
                             .internalServerError("File upload operation failed.")
                             .build();
                 }
             }
 
-            // handle containers
             if (null!=container) {
-                // we have a CONTAINER to do; create a PROJECT and store it
-                projectContainer = new Project();
-                projectContainer.addCodeId(ar.getCodeId());
-                projectContainer.setIsLimited(ar.getIsLimited());
-
-                em.persist(projectContainer); // get us a PROJECT ID
-
                 // attempt to store the archive file
                 try {
                     String containerName = saveFile(container, projectContainer.getProjectId(), containerInfo.getFileName(), projectContainer.getIsLimited());
@@ -647,20 +1050,54 @@ public class ArchiveResource {
                     projectContainer.setRepositoryType(Project.RepositoryType.Container);
                 } catch ( IOException e ) {
                     log.error ("Container Image Upload Failed: " + e.getMessage());
+                    failUpload(em, "Container upload failed.", project, projectContainer);
                     return ErrorResponse
                             .internalServerError("Container upload operation failed.")
                             .build();
                 }
             }
 
-            // got this far, we must be ready to call the background thread
-            em.getTransaction().commit();
+            // see if this exact archive is ALREADY on file
+            Project existing = (null!=file && !Project.Status.Error.equals(project.getStatus())) ?
+                    findByFileSha256(em, project) : null;
+
+            // record where the uploads were stored
+            if (null!=file || null!=container) {
+                em.getTransaction().begin();
+                if (null!=existing) {
+                    // use the existing PROJECT for this CODE ID instead
+                    if ( existing.addCodeId(ar.getCodeId()) )
+                        em.merge(existing);
+                    em.remove(project);
+                } else if (null!=file)
+                    em.merge(project);
+                if (null!=projectContainer)
+                    em.merge(projectContainer);
+                em.getTransaction().commit();
+            }
 
-            // fire off the background thread
-            ServletContextListener.callArchiver(project);
+            if (null!=existing) {
+                log.info("Upload for Code ID " + ar.getCodeId() + " matches Project " + existing.getProjectId());
+                try {
+                    wipeFiles(project.getProjectId(), project.getIsLimited());
+                } catch ( IOException e ) {
+                    log.warn("Unable to remove duplicate upload " + project.getFileName() + ": " + e.getMessage());
+                }
+            }
+
+            // fire off the background thread, unless extraction already failed
+            if (null==existing && !Project.Status.Error.equals(project.getStatus()))
+                ServletContextListener.callArchiver(project);
             if (projectContainer != null)
                 ServletContextListener.callArchiver(projectContainer);
 
+            // found it, send it back
+            if (null!=existing)
+                return Response
+                        .ok()
+                        .entity(existing.toJson())
+                        .build();
+
             // return 201 with JSON
             return Response
                     .status(Response.Status.CREATED)
@@ -683,6 +1120,100 @@ public class ArchiveResource {
         }
     }
     
+    /**
+     * Look up the PROJECT caching a repository, by its normalized key.
+     *
+     * @param em the EntityManager to use
+     * @param key the REPOSITORY KEY
+     * @return the PROJECT, or null if none
+     */
+    private static Project findByRepositoryKey(EntityManager em, String key) {
+        List<Project> pList = em.createNamedQuery("Project.findByRepositoryKey", Project.class)
+                .setParameter("key", key)
+                .getResultList();
+
+        return (pList.isEmpty()) ? null : pList.get(0);
+    }
+
+    /**
+     * Look for a PROJECT already holding an identical archive file upload,
+     * by the SHA-256 digest of its content.
+     *
+     * @param em the EntityManager to use
+     * @param project the new PROJECT, with its file digest set
+     * @return the earliest such PROJECT, or null if none
+     */
+    private static Project findByFileSha256(EntityManager em, Project project) {
+        List<Project> pList = em.createNamedQuery("Project.findByFileSha256", Project.class)
+                .setParameter("hash", project.getFileSha256())
+                .setParameter("limited", project.getIsLimited())
+                .setParameter("id", project.getProjectId())
+                .setParameter("status", Project.Status.Error)
+                .setMaxResults(1)
+                .getResultList();
+
+        return (pList.isEmpty()) ? null : pList.get(0);
+    }
+
+    /**
+     * Create a SHA-256 MessageDigest.
+     *
+     * @return a new MessageDigest
+     * @throws IOException if SHA-256 is not available
+     */
+    private static MessageDigest newSha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IOException ("SHA-256 not available.", e);
+        }
+    }
+
+    /**
+     * Reduce a client file name to a plain base file name.
+     *
+     * @param fileName the file name, possibly with a path
+     * @return the base file name, or null if there is none, or it is not a
+     * valid file name
+     */
+    private static String toBaseName(String fileName) {
+        if (StringUtils.isEmptyOrNull(fileName) || fileName.trim().isEmpty())
+            return null;
+
+        try {
+            java.nio.file.Path name = Paths.get(fileName).getFileName();
+            String baseName = (null==name) ? "" : name.toString().trim();
+
+            return (baseName.isEmpty() || ".".equals(baseName) || "..".equals(baseName)) ? null : baseName;
+        } catch ( InvalidPathException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Mark the new PROJECT(s) of a failed upload as in Error, as they were
+     * committed before the upload was read.
+     *
+     * @param em the EntityManager the PROJECT(s) were persisted with
+     * @param message the status message to record
+     * @param projects the PROJECT(s) to mark; null values are ignored
+     */
+    private static void failUpload(EntityManager em, String message, Project... projects) {
+        try {
+            em.getTransaction().begin();
+
+            for ( Project p : projects )
+                if (null!=p && em.contains(p)) {
+                    p.setStatus(Project.Status.Error);
+                    p.setStatusMessage(message);
+                }
+
+            em.getTransaction().commit();
+        } catch ( PersistenceException e ) {
+            log.warn("Unable to record upload failure: " + e.getMessage());
+        }
+    }
+
     /**
      * Process the maintenance of remote repositories as a background task.
      * 
@@ -769,6 +1300,36 @@ public class ArchiveResource {
                 .build();
     }
 
+    /**
+     * Process the housekeeping (repacking and pruning) of git caches as a
+     * background task.
+     * 
+     * @param command the command to issue; currently only "start" will begin
+     * activation.  Any other command will simply return the current status.
+     * 
+     * @return a Response JSON containing the current status of the background
+     * housekeeping thread.
+     */
+    @GET
+    @Produces (MediaType.APPLICATION_JSON)
+    @Path ("/housekeeping/{command}")
+    public Response housekeep(@PathParam("command") String command) {
+        Housekeeper housekeeper = Housekeeper.getInstance();
+        
+        if ("start".equalsIgnoreCase(command))
+            housekeeper.start();
+        
+        return Response
+                .ok()
+                .entity(mapper
+                        .createObjectNode()
+                        .put("active", housekeeper.isActive())
+                        .put("total", housekeeper.getProjectCount())
+                        .put("processed", housekeeper.getFinishedCount())
+                        .toString())
+                .build();
+    }
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/refresh")
@@ -803,19 +1364,20 @@ public class ArchiveResource {
      * @param containerInfo disposition information for the container image name
      * @param sendFileNotification flag to determine if file upload notification should be sent
      * source project
-     * @return 
+     * @param response the AsyncResponse to send the result of the archive request to
      */
     @POST
     @Consumes (MediaType.MULTIPART_FORM_DATA)
     @Produces (MediaType.APPLICATION_JSON)
-    public Response archive(
+    public void archive(
+            @Suspended AsyncResponse response,
             @FormDataParam("project") String json,
             @FormDataParam("file") InputStream file,
             @FormDataParam("file") FormDataContentDisposition fileInfo,
             @FormDataParam("container") InputStream container,
             @FormDataParam("container") FormDataContentDisposition containerInfo) {
-        // call the ARCHIVE process to do the work
-        return doArchive(json, file, fileInfo, container, containerInfo);
+        // call the ARCHIVE process to do the work, off the request thread
+        respondAsync(response, () -> doArchive(json, file, fileInfo, container, containerInfo, null));
     }
     
     /**
@@ -835,9 +1397,514 @@ public class ArchiveResource {
     @Consumes (MediaType.APPLICATION_JSON)
     @Produces (MediaType.APPLICATION_JSON)
     public Response archive(String json) {
-        return doArchive(json, null, null, null, null);
+        return doArchive(json, null, null, null, null, null);
     }
-    
+
+    /**
+     * POST several Projects to archive at once, as a JSON array of archive
+     * requests, each containing a CODE_ID and a REPOSITORY_LINK value.  Each
+     * request is handled as a single POST of its JSON would be, but all the
+     * REPOSITORY LINKS are looked up in one query, all new Projects are stored
+     * in one transaction, and all are queued to archive together.
+     *
+     * Requests sharing a REPOSITORY LINK (by its normalized key) not yet on
+     * file share one new Project, as they would if sent one after another.  File uploads may not be sent
+     * in a batch.
+     *
+     * Response Codes:
+     * 200 - OK, returns a JSON array of results, in request order; each holds
+     * the CODE_ID, the STATUS code the request would have had on its own (200,
+     * 201, or 400) and either the PROJECT or the ERRORS
+     * 400 - BAD REQUEST, not a JSON array of archive requests
+     * 500 - INTERNAL SERVER ERROR, unable to process JSON request or database error
+     *
+     * @param json the JSON array of archive requests
+     * @return a Response streaming the JSON array of results
+     */
+    @POST
+    @Path ("/batch")
+    @Consumes (MediaType.APPLICATION_JSON)
+    @Produces (MediaType.APPLICATION_JSON)
+    public Response archiveBatch(String json) {
+        List<ArchiveRequest> requests;
+
+        try {
+            requests = mapper.readValue(json, new TypeReference<List<ArchiveRequest>>() {});
+        } catch ( JsonMappingException e ) {
+            log.warn("JSON Mapping Error: " + e.getMessage());
+            return ErrorResponse
+                    .badRequest("Expected a JSON array of archive requests.")
+                    .build();
+        } catch ( IOException e ) {
+            log.warn("JSON Parser Error: " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("JSON parsing error.")
+                    .build();
+        }
+
+        if (null==requests)
+            return ErrorResponse
+                    .badRequest("Missing required archive requests.")
+                    .build();
+
+        List<BatchResult> results = new ArrayList<>();
+        List<String> keys = validateBatch(requests, results);
+        Set<String> distinctKeys = new LinkedHashSet<>(keys);
+        distinctKeys.remove(null);
+
+        EntityManager em = ServletContextListener.createEntityManager();
+
+        try {
+            List<Project> created;
+            try {
+                created = storeBatch(em, requests, results, keys, distinctKeys);
+            } catch ( PersistenceException e ) {
+                // a concurrent request stored one of these repositories first; look them up again
+                if (em.getTransaction().isActive())
+                    em.getTransaction().rollback();
+                em.clear();
+
+                created = storeBatch(em, requests, results, keys, distinctKeys);
+            }
+
+            // fire off the background threads for the new PROJECTs
+            ServletContextListener.callArchiver(created);
+
+            StreamingOutput content = (out) -> writeBatchResults(results, out);
+
+            return Response
+                    .ok(content)
+                    .build();
+        } catch ( PersistenceException e ) {
+            log.warn("Database Error: ",e);
+            return ErrorResponse
+                    .internalServerError("Database persistence error.")
+                    .build();
+        } finally {
+            if (em.getTransaction().isActive())
+                em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    /**
+     * Check each request of a batch archive request, completing its REPOSITORY
+     * LINK protocol as a single POST would.
+     *
+     * @param requests the archive requests
+     * @param results the result of each request, filled in request order with
+     * the errors of the invalid ones
+     * @return the REPOSITORY KEY of each request, or null if invalid
+     */
+    static List<String> validateBatch(List<ArchiveRequest> requests, List<BatchResult> results) {
+        List<String> keys = new ArrayList<>();
+
+        for ( ArchiveRequest ar : requests ) {
+            BatchResult result = new BatchResult(ar);
+            String key = null;
+
+            if (null==ar.getCodeId())
+                result.error = "Missing required Code ID value.";
+            else if (StringUtils.isEmptyOrNull(ar.getRepositoryLink()))
+                result.error = "Missing required Repository URL; files may not be uploaded in a batch.";
+            else {
+                // FORCE protocol if not present
+                ar.setRepositoryLink(Project.toRepositoryLink(ar.getRepositoryLink()));
+                key = Project.toRepositoryKey(ar.getRepositoryLink());
+            }
+            results.add(result);
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Look up the PROJECTS caching the repositories of a batch archive request,
+     * and store new ones for the rest, in one transaction.
+     *
+     * @param em the EntityManager to use
+     * @param requests the archive requests
+     * @param results the result of each request, updated with its PROJECT
+     * @param keys the REPOSITORY KEY of each request, or null if invalid
+     * @param distinctKeys the distinct REPOSITORY KEYS requested
+     * @return the new PROJECTS stored
+     * @throws PersistenceException on database errors, such as a repository
+     * stored meanwhile by another request
+     */
+    private static List<Project> storeBatch(EntityManager em, List<ArchiveRequest> requests, List<BatchResult> results,
+            List<String> keys, Set<String> distinctKeys) {
+        // see which are ALREADY cached, by their normalized keys
+        Map<String, Project> cached = new HashMap<>();
+        List<String> keyList = new ArrayList<>(distinctKeys);
+
+        for ( int i = 0; i < keyList.size(); i += BATCH_QUERY_SIZE ) {
+            List<Project> pList = em.createNamedQuery("Project.findByRepositoryKeys", Project.class)
+                    .setParameter("keys", keyList.subList(i, Math.min(keyList.size(), i + BATCH_QUERY_SIZE)))
+                    .getResultList();
+
+            for ( Project p : pList )
+                cached.put(p.getRepositoryKey(), p);
+        }
+
+        List<Project> created = new ArrayList<>();
+
+        em.getTransaction().begin();
+
+        for ( int i = 0; i < results.size(); ++i ) {
+            BatchResult result = results.get(i);
+            ArchiveRequest ar = requests.get(i);
+            String key = keys.get(i);
+
+            if (null==key)
+                continue;
+
+            Project p = cached.get(key);
+
+            if (null==p) {
+                // no such thing, go ahead and create a PROJECT to hold this
+                p = new Project();
+                p.setRepositoryLink(ar.getRepositoryLink());
+                p.addCodeId(ar.getCodeId());
+                p.setLastEditor(ar.getLastEditor());
+                p.setIsLimited(ar.getIsLimited());
+                p.setStatus(Project.Status.Pending);
+
+                em.persist(p);
+                created.add(p);
+                // later requests for this link use it too
+                cached.put(key, p);
+                result.created = true;
+            } else {
+                // may need to add this CODE ID if multiple projects post to this
+                if ( p.addCodeId(ar.getCodeId()) )
+                    em.merge(p);
+                result.created = false;
+            }
+            result.project = p;
+        }
+
+        em.getTransaction().commit();
+
+        return created;
+    }
+
+    /**
+     * Write the results of a batch archive request as a JSON array, one
+     * result at a time.
+     *
+     * @param results the results, in request order
+     * @param out the OutputStream to write to
+     * @throws IOException on IO errors
+     */
+    private static void writeBatchResults(List<BatchResult> results, OutputStream out) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for ( BatchResult result : results ) {
+                generator.writeStartObject();
+                if (null!=result.codeId)
+                    generator.writeNumberField("code_id", result.codeId);
+                if (null!=result.error) {
+                    generator.writeNumberField("status", Response.Status.BAD_REQUEST.getStatusCode());
+                    generator.writeArrayFieldStart("errors");
+                    generator.writeString(result.error);
+                    generator.writeEndArray();
+                } else {
+                    generator.writeNumberField("status", (result.created) ?
+                            Response.Status.CREATED.getStatusCode() : Response.Status.OK.getStatusCode());
+                    generator.writeFieldName("project");
+                    generator.writeRawValue(result.project.toJson());
+                }
+                generator.writeEndObject();
+                generator.flush();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * The disposition of a single request of a batch archive request.
+     */
+    static class BatchResult {
+        // the requested CODE ID
+        private final Long codeId;
+        // the PROJECT archiving the request, if successful
+        private Project project;
+        // whether the PROJECT is new
+        private boolean created;
+        // the reason the request failed, if not successful
+        private String error;
+
+        private BatchResult(ArchiveRequest ar) {
+            this.codeId = ar.getCodeId();
+        }
+    }
+
+    /**
+     * Start a chunked, resumable file upload.  JSON should contain the
+     * FILE_NAME and FILE_SIZE of the file to upload, and IS_LIMITED if the
+     * upload is limited software.
+     *
+     * Response Codes:
+     * 201 - CREATED, returns JSON of the UPLOAD_ID and CHUNK_SIZE to use
+     * 400 - BAD REQUEST, missing or invalid file name or size
+     * 500 - INTERNAL SERVER ERROR, unable to process JSON request or store the upload
+     *
+     * @param json the JSON describing the file to upload
+     * @return a Response describing the new upload session
+     */
+    @POST
+    @Path ("/upload")
+    @Consumes (MediaType.APPLICATION_JSON)
+    @Produces (MediaType.APPLICATION_JSON)
+    public Response startUpload(String json) {
+        try {
+            JsonNode request = mapper.readTree(json);
+            String fileName = request.path("file_name").asText("");
+            long fileSize = request.path("file_size").asLong(0);
+
+            // a plain base file name only
+            fileName = toBaseName(fileName);
+            if (null==fileName || fileSize <= 0)
+                return ErrorResponse
+                        .badRequest("Missing required file name or size.")
+                        .build();
+
+            UploadSession session = UploadSession.create(fileName, fileSize, request.path("is_limited").asBoolean(false));
+
+            return Response
+                    .status(Response.Status.CREATED)
+                    .entity(mapper.writeValueAsString(uploadStatus(session)))
+                    .build();
+        } catch ( JsonProcessingException e ) {
+            log.warn("JSON Parser Error: " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("JSON parsing error.")
+                    .build();
+        } catch ( IOException e ) {
+            log.error("Upload Session Failed: " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("Unable to start file upload.")
+                    .build();
+        }
+    }
+
+    /**
+     * Store a single chunk of a chunked upload.  Chunks are numbered from 0,
+     * each CHUNK_SIZE bytes (the last may be shorter), and may be sent in any
+     * order, or sent again if interrupted.
+     *
+     * Response Codes:
+     * 204 - NO CONTENT, chunk stored
+     * 400 - BAD REQUEST, chunk number out of range or wrong length
+     * 404 - NOT FOUND, no such upload session
+     * 500 - INTERNAL SERVER ERROR, unable to store the chunk
+     *
+     * @param response the AsyncResponse to send the result to
+     * @param uploadId the UPLOAD ID of the session
+     * @param chunk the chunk number
+     * @param in the chunk content
+     */
+    @PUT
+    @Path ("/upload/{uploadId}/{chunk}")
+    @Consumes (MediaType.APPLICATION_OCTET_STREAM)
+    @Produces (MediaType.APPLICATION_JSON)
+    public void uploadChunk(@Suspended AsyncResponse response, @PathParam ("uploadId") String uploadId, @PathParam ("chunk") Long chunk, InputStream in) {
+        respondAsync(response, () -> doUploadChunk(uploadId, chunk, in));
+    }
+
+    /**
+     * Store a single chunk of a chunked upload.
+     *
+     * @param uploadId the UPLOAD ID of the session
+     * @param chunk the chunk number
+     * @param in the chunk content
+     * @return a Response according to the disposition of the chunk
+     */
+    private Response doUploadChunk(String uploadId, Long chunk, InputStream in) {
+        try {
+            UploadSession session = UploadSession.find(uploadId);
+
+            if (null==session)
+                return ErrorResponse
+                        .notFound("Upload not on file.")
+                        .build();
+
+            session.writeChunk(chunk, in);
+
+            return Response
+                    .noContent()
+                    .build();
+        } catch ( IllegalArgumentException e ) {
+            return ErrorResponse
+                    .badRequest(e.getMessage())
+                    .build();
+        } catch ( IOException e ) {
+            log.error("Upload Chunk " + chunk + " Failed for " + uploadId + ": " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("Chunk upload operation failed.")
+                    .build();
+        }
+    }
+
+    /**
+     * Look up the state of a chunked upload, so an interrupted upload may
+     * send only its MISSING_CHUNKS.
+     *
+     * Response Codes:
+     * 200 - OK, returns JSON of the upload session
+     * 404 - NOT FOUND, no such upload session
+     * 500 - INTERNAL SERVER ERROR, unable to read the upload session
+     *
+     * @param uploadId the UPLOAD ID of the session
+     * @return a Response containing JSON of the upload session
+     */
+    @GET
+    @Path ("/upload/{uploadId}")
+    @Produces (MediaType.APPLICATION_JSON)
+    public Response findUpload(@PathParam ("uploadId") String uploadId) {
+        try {
+            UploadSession session = UploadSession.find(uploadId);
+
+            if (null==session)
+                return ErrorResponse
+                        .notFound("Upload not on file.")
+                        .build();
+
+            ObjectNode status = uploadStatus(session);
+            status.putPOJO("missing_chunks", session.getMissingChunks());
+
+            return Response
+                    .ok()
+                    .entity(mapper.writeValueAsString(status))
+                    .build();
+        } catch ( IOException e ) {
+            log.error("Upload Lookup Failed for " + uploadId + ": " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("Unable to read file upload.")
+                    .build();
+        }
+    }
+
+    /**
+     * Finish a chunked upload, and archive the Project with the uploaded file,
+     * as if it were POSTed as a multipart upload.  The SHA-256 digest of the
+     * whole file, if supplied, must match the content received.
+     *
+     * Response Codes:
+     * 200 - OK, the upload matches a project already on file
+     * 201 - CREATED, new project created and logged
+     * 400 - BAD REQUEST, chunks missing, digest mismatch, or invalid Project
+     * 404 - NOT FOUND, no such upload session
+     * 500 - INTERNAL SERVER ERROR, unable to process JSON request or read the upload
+     *
+     * @param response the AsyncResponse to send the result to
+     * @param uploadId the UPLOAD ID of the session
+     * @param sha256 (optional) the hexadecimal SHA-256 digest of the file
+     * @param json the JSON of the Project to archive
+     */
+    @POST
+    @Path ("/upload/{uploadId}/finalize")
+    @Consumes (MediaType.APPLICATION_JSON)
+    @Produces (MediaType.APPLICATION_JSON)
+    public void finishUpload(@Suspended AsyncResponse response, @PathParam ("uploadId") String uploadId, @QueryParam ("sha256") String sha256, String json) {
+        respondAsync(response, () -> doFinishUpload(uploadId, sha256, json));
+    }
+
+    /**
+     * Finish a chunked upload, and archive the Project with the uploaded file.
+     *
+     * @param uploadId the UPLOAD ID of the session
+     * @param sha256 (optional) the hexadecimal SHA-256 digest of the file
+     * @param json the JSON of the Project to archive
+     * @return a Response according to the disposition of the archived Project
+     */
+    private Response doFinishUpload(String uploadId, String sha256, String json) {
+        try {
+            UploadSession session = UploadSession.find(uploadId);
+
+            if (null==session)
+                return ErrorResponse
+                        .notFound("Upload not on file.")
+                        .build();
+
+            List<Long> missing = session.getMissingChunks();
+            if (!missing.isEmpty())
+                return ErrorResponse
+                        .badRequest("Upload is missing " + missing.size() + " chunks.")
+                        .build();
+
+            if (!StringUtils.isEmptyOrNull(sha256) && !sha256.equalsIgnoreCase(session.getSha256()))
+                return ErrorResponse
+                        .badRequest("Upload SHA-256 digest does not match.")
+                        .build();
+
+            // limited software content must stay in limited storage
+            ArchiveRequest ar = mapper.readValue(json, ArchiveRequest.class);
+            if (ar.getIsLimited() != session.getIsLimited())
+                return ErrorResponse
+                        .badRequest("Upload and Project limited software flags do not match.")
+                        .build();
+
+            Response response;
+            try (InputStream file = Files.newInputStream(session.getContent())) {
+                response = doArchive(json, file, FormDataContentDisposition
+                        .name("file")
+                        .fileName(session.getFileName())
+                        .build(), null, null, session.getContent());
+            }
+
+            // the upload is now stored with a Project, new or existing; otherwise keep it to try again
+            if (Response.Status.Family.SUCCESSFUL == response.getStatusInfo().getFamily())
+                session.delete();
+
+            return response;
+        } catch ( JsonProcessingException e ) {
+            log.warn("JSON Parser Error: " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("JSON parsing error.")
+                    .build();
+        } catch ( IOException e ) {
+            log.error("Upload Finalize Failed for " + uploadId + ": " + e.getMessage());
+            return ErrorResponse
+                    .internalServerError("File upload operation failed.")
+                    .build();
+        }
+    }
+
+    /**
+     * Produce the Response to a request on the upload I/O threads, so the
+     * request thread is not held while an upload is read and stored.
+     *
+     * @param response the suspended AsyncResponse to resume
+     * @param task the request processing, producing its Response
+     */
+    private static void respondAsync(AsyncResponse response, Supplier<Response> task) {
+        ServletContextListener.callUpload(() -> {
+            try {
+                response.resume(task.get());
+            } catch ( RuntimeException e ) {
+                log.error("Upload Request Failed: ", e);
+                response.resume(e);
+            }
+        });
+    }
+
+    /**
+     * Describe an upload session in JSON.
+     *
+     * @param session the UploadSession
+     * @return JSON of the session identifier, file, and chunk sizes
+     */
+    private static ObjectNode uploadStatus(UploadSession session) {
+        return mapper
+                .createObjectNode()
+                .put("upload_id", session.getId())
+                .put("file_name", session.getFileName())
+                .put("file_size", session.getFileSize())
+                .put("chunk_size", session.getChunkSize())
+                .put("chunk_count", session.getChunkCount());
+    }
+
     /**
      * Store a given File InputStream to a new base absolute path.
      * @param in the InputStream containing the File
@@ -859,11 +1926,72 @@ public class ArchiveResource {
         return destination.toString();
     }
     
+    /**
+     * Move a given File, such as a finished chunked upload, to a new base
+     * absolute path, without writing its content again.
+     * @param source the File to move
+     * @param projectId the PROJECT ID to associate with
+     * @param fileName the base file name to use
+     * @param isLimited whether the Project is limited software
+     * @throws IOException on IO errors
+     * @return the new File name complete path
+     */
+    private static String moveFile(java.nio.file.Path source, Long projectId, String fileName, boolean isLimited) throws IOException {
+        String targetBaseDir = isLimited ? FILE_LIMITED_BASEDIR : FILE_BASEDIR;
+
+        // store this file in a designated base path
+        java.nio.file.Path destination = Paths.get(targetBaseDir, String.valueOf(projectId), fileName);
+        // make the necessary file paths
+        Files.createDirectories(destination.getParent());
+        // move it, or copy it across file systems
+        Files.move(source, destination);
+
+        return destination.toString();
+    }
+
+    /**
+     * Store a given archive File InputStream to a new base absolute path, and
+     * extract its content into the Project folder in the same read.
+     * 
+     * On success the Project's cache folder is set, so the background archiver
+     * need not extract it again; if the content cannot be extracted, or passes
+     * an extraction limit, the Project is marked in Error instead, with the
+     * reason as its status message.
+     * 
+     * @param in the InputStream containing the File, as from Extractor.detectArchiveFormat()
+     * @param project the Project to associate with
+     * @param fileName the base file name to use
+     * @throws IOException on IO errors storing the File
+     * @return the new File name complete path
+     */
+    private static String saveAndExtractFile(InputStream in, Project project, String fileName) throws IOException {
+        String targetBaseDir = project.getIsLimited() ? FILE_LIMITED_BASEDIR : FILE_BASEDIR;
+
+        // store this file in a designated base path, extracting alongside it
+        java.nio.file.Path destination = Paths.get(targetBaseDir, String.valueOf(project.getProjectId()), fileName);
+        // make the necessary file paths
+        Files.createDirectories(destination.getParent());
+
+        try {
+            Extractor.saveAndExtract(in, destination, destination.getParent());
+
+            project.setRepositoryType(Project.RepositoryType.File);
+            project.setCacheFolder(destination.getParent().toString());
+        } catch ( ArchiveException | ExtractionLimitException e ) {
+            log.warn("Archive extraction error: " + e.getMessage());
+            project.setStatus(Project.Status.Error);
+            project.setStatusMessage("Archive Error: " + e.getMessage());
+        }
+
+        return destination.toString();
+    }
+    
     /**
      * Delete a PROJECT'S cache files, including any extracted files, if found.
      * 
      * Should be used as a RESET BUTTON for this Project.  Will do nothing if
-     * no files exist to delete.
+     * no files exist to delete.  Stored blobs the files were the last links to
+     * are left for the caller to collect, once for all the Projects it wipes.
      * 
      * @param projectId the PROJECT ID to wipe out
      * @throws IOException on file IO errors
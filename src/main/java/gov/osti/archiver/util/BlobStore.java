@@ -0,0 +1,225 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import gov.osti.archiver.listener.ServletContextListener;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-addressable store for extracted archive files.
+ *
+ * When enabled, each extracted file is stored once under its SHA-256 digest,
+ * as "sha256/aa/bb/aabb..." within the base file folder, and the Project
+ * folder holds a hard link to it; identical files across Projects (vendored
+ * libraries, license files, successive versions of one code) then share a
+ * single copy.  Blobs are made read-only, as every link shares them.
+ *
+ * The file system link count is the reference count: a blob linked from no
+ * Project folder has a count of 1, and is removed by collect().
+ */
+public class BlobStore {
+    // logger
+    private static Logger log = LoggerFactory.getLogger(BlobStore.class);
+    // whether extracted files are kept in the blob store
+    private static boolean ENABLED = Boolean.parseBoolean(ServletContextListener.getConfigurationProperty("extract.blobstore"));
+    // base file folders the blob store may be kept in
+    private static String FILE_BASEDIR = ServletContextListener.getConfigurationProperty("file.archive");
+    private static String FILE_LIMITED_BASEDIR = ServletContextListener.getConfigurationProperty("file.limited.archive");
+    // sub-folder of the base file folder holding the blob store
+    private static final String FOLDER = "sha256";
+    // sub-folder of the blob store for files being written
+    private static final String TEMP = "tmp";
+    // hours after which an abandoned temporary file is removed
+    private static final long TEMP_HOURS = 24;
+
+    // the blob store folder
+    private final Path root;
+
+    BlobStore(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Determine whether the blob store is enabled.
+     *
+     * @return true if extracted files are kept in the blob store
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Find the blob store for an extracted file: the one in the base file
+     * folder it is extracted under, as hard links may not cross file systems.
+     *
+     * @param target the extracted file
+     * @return the BlobStore, or null if disabled or not under a base folder
+     */
+    static BlobStore forTarget(Path target) {
+        if (!ENABLED)
+            return null;
+
+        Path file = target.toAbsolutePath();
+
+        for ( String base : new String[] { FILE_BASEDIR, FILE_LIMITED_BASEDIR } )
+            if (!StringUtils.isEmptyOrNull(base) && file.startsWith(Paths.get(base).toAbsolutePath()))
+                return new BlobStore(Paths.get(base).toAbsolutePath().resolve(FOLDER));
+
+        return null;
+    }
+
+    /**
+     * Create a SHA-256 MessageDigest for content to store.
+     *
+     * @return a new MessageDigest
+     * @throws IOException if SHA-256 is not available
+     */
+    static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IOException ("SHA-256 not available.", e);
+        }
+    }
+
+    /**
+     * Create a temporary file to write content into before it is stored.
+     *
+     * @return the temporary file
+     * @throws IOException on file IO errors
+     */
+    Path createTemp() throws IOException {
+        return Files.createTempFile(Files.createDirectories(root.resolve(TEMP)), "blob", null);
+    }
+
+    /**
+     * Store written content under its digest, and link the extracted file to
+     * it.  If the blob is already on file, the temporary copy is discarded.
+     *
+     * @param temp the temporary file holding the content
+     * @param digest the SHA-256 digest of the content
+     * @param target the extracted file to link
+     * @param replace true to replace any existing target file
+     * @throws IOException on file IO errors, or if the target exists
+     */
+    void store(Path temp, byte[] digest, Path target, boolean replace) throws IOException {
+        String hash = String.format("%064x", new BigInteger(1, digest));
+        Path blob = root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+
+        try {
+            if (replace)
+                Files.deleteIfExists(target);
+
+            try {
+                Files.createDirectories(blob.getParent());
+                // only ever add, never replace, a blob
+                Files.createLink(blob, temp);
+                blob.toFile().setReadOnly();
+            } catch ( FileAlreadyExistsException e ) {
+                try {
+                    linkTarget(target, blob, temp);
+                    return;
+                } catch ( NoSuchFileException x ) {
+                    // collected in the meantime; store this copy instead
+                    Files.createLink(blob, temp);
+                    blob.toFile().setReadOnly();
+                }
+            }
+            // the temporary file is the same file as the blob
+            linkTarget(target, temp, temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Link the extracted file to stored content.  A blob shared by very many
+     * Projects may reach the file system limit of links to a file ("Too many
+     * links"); the extracted file then gets the temporary copy to itself.
+     *
+     * @param target the extracted file to link
+     * @param existing the stored content
+     * @param temp the temporary file holding the same content
+     * @throws IOException on file IO errors, or if the target exists
+     */
+    private void linkTarget(Path target, Path existing, Path temp) throws IOException {
+        try {
+            createLink(target, existing);
+        } catch ( FileAlreadyExistsException | NoSuchFileException e ) {
+            throw e;
+        } catch ( FileSystemException e ) {
+            log.warn("Unable to link " + target + " to the blob store: " + e.getReason() + "; keeping a private copy.");
+            Files.move(temp, target);
+        }
+    }
+
+    /**
+     * Create a hard link to an existing file.
+     *
+     * @param link the link to create
+     * @param existing the existing file
+     * @throws IOException on file IO errors
+     */
+    void createLink(Path link, Path existing) throws IOException {
+        Files.createLink(link, existing);
+    }
+
+    /**
+     * Remove blobs no longer linked from any Project folder, along with any
+     * abandoned temporary files, from the blob store in a base file folder.
+     *
+     * @param baseDir the base file folder
+     * @return the number of blobs removed
+     * @throws IOException on file IO errors
+     */
+    public static long collect(String baseDir) throws IOException {
+        Path store = Paths.get(baseDir, FOLDER);
+        AtomicLong removed = new AtomicLong();
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(TEMP_HOURS);
+
+        if (!Files.isDirectory(store))
+            return 0;
+
+        try {
+            Files.walkFileTree(store, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (file.getParent().equals(store.resolve(TEMP))) {
+                        // temporary files are only linked once written
+                        if (attrs.lastModifiedTime().toMillis() < cutoff)
+                            Files.deleteIfExists(file);
+                    } else if (1 == (Integer) Files.getAttribute(file, "unix:nlink")) {
+                        Files.deleteIfExists(file);
+                        removed.incrementAndGet();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch ( UnsupportedOperationException | IllegalArgumentException e ) {
+            // no link counts on this file system
+            log.warn("Unable to collect blob store " + store + ": " + e.getMessage());
+        }
+
+        if (removed.get() > 0)
+            log.info("Removed " + removed.get() + " unreferenced blobs from " + store);
+
+        return removed.get();
+    }
+}
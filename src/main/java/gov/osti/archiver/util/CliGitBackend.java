@@ -0,0 +1,185 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import gov.osti.archiver.listener.ServletContextListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Clone, fetch and collect with the git command line program.  Packs are
+ * received, indexed and repacked by git itself, on as many Threads as there
+ * are processors, with none of the work on the JVM heap; every clone
+ * strategy is supported.
+ */
+class CliGitBackend implements GitBackend {
+    private static final Logger log = LoggerFactory.getLogger(CliGitBackend.class);
+
+    // the git command line program
+    private static String GIT_COMMAND = ServletContextListener.getConfigurationProperty("git.command");
+    // minutes a git command may run before it is killed
+    private static long COMMAND_TIMEOUT = ServletContextListener.getConfigurationProperty("git.command.timeout", 60);
+
+    @Override
+    public void clone(String url, Path path, GitRepository.CloneStrategy strategy, int depth, boolean mirror) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add("clone");
+
+        switch ( strategy ) {
+            case SINGLE_BRANCH:
+                args.add("--single-branch");
+                if (mirror)
+                    args.add("--bare");
+                break;
+
+            case SHALLOW:
+                args.add((mirror) ? "--bare" : "--single-branch");
+                args.add("--depth");
+                args.add(String.valueOf(Math.max(1, depth)));
+                break;
+
+            case BLOBLESS:
+                args.add((mirror) ? "--mirror" : "--no-single-branch");
+                args.add("--filter=blob:none");
+                break;
+
+            default:
+                args.add((mirror) ? "--mirror" : "--no-single-branch");
+                break;
+        }
+        args.add("--");
+        args.add(url);
+        args.add(path.toString());
+
+        run(null, args.toArray(new String[0]));
+    }
+
+    /**
+     * Fetch with "git fetch", counting the references changed by comparing
+     * them before and after.
+     */
+    @Override
+    public int fetch(File gitDir, String url, List<String> refspecs, boolean prune) throws IOException {
+        Map<String, String> before = getRefs(gitDir);
+
+        List<String> args = new ArrayList<>();
+        args.add("fetch");
+        if (prune)
+            args.add("--prune");
+        args.add(Constants.DEFAULT_REMOTE_NAME);
+        if (null!=refspecs)
+            args.addAll(refspecs);
+
+        run(gitDir, args.toArray(new String[0]));
+
+        Map<String, String> after = getRefs(gitDir);
+        Set<String> names = new HashSet<>(before.keySet());
+        names.addAll(after.keySet());
+
+        return (int) names.stream().filter((name) -> !Objects.equals(before.get(name), after.get(name))).count();
+    }
+
+    /**
+     * Collect with "git gc", which also writes a commit-graph, speeding up
+     * history walks such as those of later fetches.
+     */
+    @Override
+    public void gc(File gitDir) throws IOException {
+        run(gitDir, "-c", "repack.writeBitmaps=true", "-c", "gc.writeCommitGraph=true", "gc", "--quiet");
+    }
+
+    /**
+     * Read the references of a repository, leaving out symbolic ones (such
+     * as origin/HEAD) that only follow others.
+     *
+     * @param gitDir the git metadata folder
+     * @return the object ID of each reference, by name
+     * @throws IOException on IO errors
+     */
+    private static Map<String, String> getRefs(File gitDir) throws IOException {
+        Map<String, String> refs = new HashMap<>();
+
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+            for ( Ref ref : repo.getRefDatabase().getRefsByPrefix(Constants.R_REFS) )
+                if (!ref.isSymbolic() && null!=ref.getObjectId())
+                    refs.put(ref.getName(), ref.getObjectId().getName());
+        }
+        return refs;
+    }
+
+    /**
+     * Run the git command line program, waiting for it to finish, but no
+     * longer than the configured timeout; one left waiting on an unresponsive
+     * remote is killed.
+     *
+     * @param folder the folder to run in, or null for the current one
+     * @param args the git command and its arguments
+     * @return the command output
+     * @throws IOException if git could not be run, failed, or timed out
+     */
+    static String run(File folder, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add((StringUtils.isEmptyOrNull(GIT_COMMAND)) ? "git" : GIT_COMMAND);
+        command.addAll(Arrays.asList(args));
+
+        // the git command itself, past any "-c name=value" options
+        int i = 0;
+        while (i < args.length - 1 && args[i].startsWith("-"))
+            i += ("-c".equals(args[i])) ? 2 : 1;
+        String name = args[Math.min(i, args.length - 1)];
+
+        // output to a file, so the wait for git may be timed
+        File output = File.createTempFile("git", ".out");
+        ProcessBuilder pb = new ProcessBuilder(command)
+                .directory(folder)
+                .redirectErrorStream(true)
+                .redirectOutput(output);
+        // never wait on a credential prompt
+        pb.environment().put("GIT_TERMINAL_PROMPT", "0");
+
+        Process proc = null;
+        try {
+            proc = pb.start();
+
+            if (!proc.waitFor(COMMAND_TIMEOUT, TimeUnit.MINUTES)) {
+                log.warn("git " + name + " timed out after " + COMMAND_TIMEOUT + " minutes.");
+                throw new IOException("Git Failure: git " + name + " timed out.");
+            }
+
+            String result = FileUtils.readFileToString(output, StandardCharsets.UTF_8).trim();
+
+            if (proc.exitValue() != 0) {
+                log.warn("git " + name + " failed: " + result);
+                throw new IOException("Git Failure: " + result.substring(result.lastIndexOf('\n') + 1));
+            }
+            return result;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Git Failure: interrupted.");
+        } finally {
+            if (null!=proc)
+                proc.destroyForcibly();
+            Files.deleteIfExists(output.toPath());
+        }
+    }
+}
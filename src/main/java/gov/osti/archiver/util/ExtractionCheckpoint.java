@@ -0,0 +1,193 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import gov.osti.archiver.listener.ServletContextListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Progress record for an archive extraction, kept in a small file next to the
+ * archive so that an interrupted extraction may pick up where it left off.
+ *
+ * Entries are extracted in one or more fixed "slices" (a single slice for
+ * serial extraction, one per worker for parallel zip extraction), and the
+ * checkpoint tracks how many entries of each slice are complete.  It is
+ * written every few entries, and removed once extraction is done.
+ */
+class ExtractionCheckpoint {
+    // logger
+    private static Logger log = LoggerFactory.getLogger(ExtractionCheckpoint.class);
+    // number of completed entries between checkpoint writes; 0 disables checkpoints
+    private static int INTERVAL = (int) ServletContextListener.getConfigurationProperty("extract.checkpoint.entries", 100);
+    // suffix of the checkpoint file name, after the archive file name
+    static final String SUFFIX = ".checkpoint";
+
+    // the checkpoint file
+    private final Path file;
+    // size and modification time of the archive, to recognize it on resume
+    private final long archiveSize;
+    private final long archiveModified;
+    // true if a previous extraction of this archive was interrupted
+    private final boolean resuming;
+    // completed entries of each slice
+    private final long[] entries;
+    // completed entries at the start of this extraction, per slice
+    private final long[] skip;
+    // bytes of entry content extracted so far
+    private long offset;
+    // entries completed since the last checkpoint write
+    private int pending;
+
+    /**
+     * Set up the checkpoint for an archive, loading any previous progress.
+     *
+     * @param archive the archive being extracted
+     * @param slices the number of slices the entries are extracted in
+     * @throws IOException on file IO errors
+     */
+    private ExtractionCheckpoint(Path archive, int slices) throws IOException {
+        file = Paths.get(archive.toString() + SUFFIX);
+        archiveSize = Files.size(archive);
+        archiveModified = Files.getLastModifiedTime(archive).toMillis();
+        resuming = Files.exists(file);
+        entries = new long[slices];
+        skip = new long[slices];
+
+        if (resuming) {
+            Properties saved = new Properties();
+
+            try (InputStream in = Files.newInputStream(file)) {
+                saved.load(in);
+            }
+
+            // progress only counts for the same archive, split the same way
+            if (String.valueOf(archiveSize).equals(saved.getProperty("archive.size")) &&
+                String.valueOf(archiveModified).equals(saved.getProperty("archive.modified")) &&
+                String.valueOf(slices).equals(saved.getProperty("slices"))) {
+                for ( int i = 0; i < slices; ++i )
+                    entries[i] = skip[i] = Long.parseLong(saved.getProperty("entries." + i, "0"));
+                offset = Long.parseLong(saved.getProperty("offset", "0"));
+            }
+
+            log.info("Resuming extraction of " + archive + " after " + total() + " entries (" + offset + " bytes).");
+        }
+    }
+
+    /**
+     * Start (or resume) checkpointing the extraction of an archive.
+     *
+     * @param file_name ABSOLUTE file system path to the archive
+     * @param slices the number of slices the entries are extracted in
+     * @return the ExtractionCheckpoint for the archive
+     * @throws IOException on file IO errors
+     */
+    static ExtractionCheckpoint open(String file_name, int slices) throws IOException {
+        ExtractionCheckpoint checkpoint = new ExtractionCheckpoint(Paths.get(file_name), slices);
+
+        // mark the extraction as started, so any interruption is recognized
+        if (INTERVAL > 0)
+            checkpoint.save();
+
+        return checkpoint;
+    }
+
+    /**
+     * Determine whether an archive has an interrupted extraction on record.
+     *
+     * @param file_name ABSOLUTE file system path to the archive
+     * @return true if a checkpoint exists for the archive
+     */
+    static boolean exists(String file_name) {
+        return Files.exists(Paths.get(file_name + SUFFIX));
+    }
+
+    /**
+     * Whether this extraction continues an interrupted one; if so, entries
+     * may already be partially extracted and are to be overwritten.
+     *
+     * @return true if resuming
+     */
+    boolean isResuming() {
+        return resuming;
+    }
+
+    /**
+     * Whether an entry was completed by the interrupted extraction.
+     *
+     * @param slice the slice of the entry
+     * @param index the index of the entry within its slice
+     * @return true if the entry may be skipped
+     */
+    boolean isDone(int slice, long index) {
+        return index < skip[slice];
+    }
+
+    /**
+     * Record an entry as completed, writing the checkpoint if due.
+     *
+     * @param slice the slice of the entry
+     * @param bytes the size of the entry content
+     * @throws IOException on file IO errors
+     */
+    synchronized void done(int slice, long bytes) throws IOException {
+        ++entries[slice];
+        offset += bytes;
+
+        if (INTERVAL > 0 && ++pending >= INTERVAL)
+            save();
+    }
+
+    /**
+     * Remove the checkpoint, once extraction is complete.
+     *
+     * @throws IOException on file IO errors
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * @return the total number of completed entries
+     */
+    private long total() {
+        long count = 0;
+
+        for ( long n : entries )
+            count += n;
+        return count;
+    }
+
+    /**
+     * Write the current progress, replacing the checkpoint file atomically so
+     * an interruption never leaves a partial checkpoint behind.
+     *
+     * @throws IOException on file IO errors
+     */
+    private synchronized void save() throws IOException {
+        Properties progress = new Properties();
+
+        progress.setProperty("archive.size", String.valueOf(archiveSize));
+        progress.setProperty("archive.modified", String.valueOf(archiveModified));
+        progress.setProperty("slices", String.valueOf(entries.length));
+        for ( int i = 0; i < entries.length; ++i )
+            progress.setProperty("entries." + i, String.valueOf(entries[i]));
+        progress.setProperty("offset", String.valueOf(offset));
+
+        Path temp = Paths.get(file.toString() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            progress.store(out, "archive extraction progress");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        pending = 0;
+    }
+}
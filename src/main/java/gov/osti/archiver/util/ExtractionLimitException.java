@@ -0,0 +1,15 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an archive extraction is stopped for passing one of its
+ * configured resource limits, as opposed to failing for IO reasons.
+ */
+public class ExtractionLimitException extends IOException {
+    public ExtractionLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record of the file entries extracted from an archive: their size,
+ * modification time and CRC as given by the archive (zip central directory,
+ * tar header, etc.).
+ *
+ * The manifest is saved next to the archive.  When a new version of an
+ * archive is extracted, entries matching the previous version's manifest are
+ * hard-linked from the previous extraction rather than being inflated again.
+ */
+class ExtractionManifest {
+    // logger
+    private static Logger log = LoggerFactory.getLogger(ExtractionManifest.class);
+    // suffix of the manifest file name, after the archive file name
+    static final String SUFFIX = ".manifest";
+
+    // the manifest file for this extraction
+    private final Path file;
+    // entries extracted, by name
+    private final Map<String, Record> records = new LinkedHashMap<>();
+    // entries of the previous extraction, by name; empty if none
+    private final Map<String, Record> previous = new HashMap<>();
+    // the previous extraction folder, or null if none
+    private final Path previousBase;
+    // number of entries linked from the previous extraction
+    private long linked = 0;
+
+    /**
+     * The archive information on an entry.
+     */
+    private static class Record {
+        private final long size;
+        private final long modified;
+        private final long crc;
+
+        private Record(long size, long modified, long crc) {
+            this.size = size;
+            this.modified = modified;
+            this.crc = crc;
+        }
+
+        /**
+         * An entry is unchanged if size, time and CRC match; unknown (-1)
+         * values only match each other, and at least the time or the CRC must
+         * be known.
+         *
+         * @param o the other Record
+         * @return true if the entries are taken to be the same
+         */
+        private boolean matches(Record o) {
+            return size == o.size && modified == o.modified && crc == o.crc &&
+                    (-1 != modified || -1 != crc);
+        }
+    }
+
+    /**
+     * Start a manifest for an archive extraction.
+     *
+     * @param file_name ABSOLUTE file system path to the archive
+     * @param previousFile ABSOLUTE file system path to a previous version of
+     * the archive, or null if none
+     * @param previousBase the location the previous version was extracted to,
+     * or null if none
+     */
+    ExtractionManifest(String file_name, String previousFile, Path previousBase) {
+        file = Paths.get(file_name + SUFFIX);
+        this.previousBase = previousBase;
+
+        if (null!=previousFile && null!=previousBase) {
+            Path manifest = Paths.get(previousFile + SUFFIX);
+
+            if (Files.exists(manifest))
+                try (BufferedReader in = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+                    String line;
+
+                    while ( (line=in.readLine()) != null ) {
+                        // size, time, CRC, then the name, which may itself contain tabs
+                        String[] fields = line.split("\t", 4);
+
+                        if (4 == fields.length)
+                            previous.put(fields[3], new Record(
+                                    Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                    }
+                } catch ( IOException | NumberFormatException e ) {
+                    log.warn("Unable to read extraction manifest " + manifest + ": " + e.getMessage());
+                    previous.clear();
+                }
+        }
+    }
+
+    /**
+     * Record a file entry, and link it from the previous extraction if it is
+     * unchanged there.
+     *
+     * @param name the entry name
+     * @param size the entry size, or -1 if unknown
+     * @param modified the entry modification time in milliseconds, or -1 if unknown
+     * @param crc the entry CRC-32, or -1 if unknown
+     * @param target the Path the entry is to be extracted to
+     * @param replace true to replace any existing target file
+     * @return true if the entry was linked, false if it needs to be extracted
+     */
+    synchronized boolean link(String name, long size, long modified, long crc, Path target, boolean replace) {
+        Record record = new Record(size, modified, crc);
+        Record old = previous.get(name);
+
+        records.put(name, record);
+
+        if (null==old || !old.matches(record))
+            return false;
+
+        try {
+            Path source = previousBase.resolve(name);
+
+            // only if the previous file is (still) what was extracted
+            if (!source.startsWith(previousBase) || !Files.isRegularFile(source) || Files.size(source) != size)
+                return false;
+
+            if (replace)
+                Files.deleteIfExists(target);
+            Files.createLink(target, source);
+
+            ++linked;
+            return true;
+        } catch ( IOException | UnsupportedOperationException e ) {
+            // such as across file systems; extract it instead
+            log.debug("Unable to link " + name + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Record an extracted (or previously extracted) file entry.
+     *
+     * @param name the entry name
+     * @param size the entry size, or -1 if unknown
+     * @param modified the entry modification time in milliseconds, or -1 if unknown
+     * @param crc the entry CRC-32, or -1 if unknown
+     */
+    synchronized void record(String name, long size, long modified, long crc) {
+        records.put(name, new Record(size, modified, crc));
+    }
+
+    /**
+     * Save the manifest next to the archive, once extraction is complete.
+     *
+     * @throws IOException on file IO errors
+     */
+    synchronized void save() throws IOException {
+        Path temp = Paths.get(file.toString() + ".tmp");
+
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for ( Map.Entry<String, Record> entry : records.entrySet() ) {
+                Record record = entry.getValue();
+
+                // names are one per line
+                if (entry.getKey().indexOf('\n') >= 0 || entry.getKey().indexOf('\r') >= 0)
+                    continue;
+
+                out.write(record.size + "\t" + record.modified + "\t" + record.crc + "\t" + entry.getKey());
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (linked > 0)
+            log.info("Linked " + linked + " of " + records.size() + " unchanged entries from " + previousBase);
+    }
+}
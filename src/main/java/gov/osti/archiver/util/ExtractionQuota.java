@@ -0,0 +1,143 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import gov.osti.archiver.listener.ServletContextListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * Resource limits for a single archive extraction, guarding against
+ * decompression bombs.
+ *
+ * Entry counts and path depths are checked as each entry is reached, and
+ * expanded content is counted as it is read, so extraction fails with an
+ * ExtractionLimitException as soon as any limit is passed rather than after
+ * the fact.  A limit of 0 is unlimited, as all are by default.
+ */
+class ExtractionQuota {
+    // maximum total bytes of expanded content
+    private static long MAX_BYTES = ServletContextListener.getConfigurationProperty("extract.max.bytes", 0);
+    // maximum number of archive entries
+    private static long MAX_ENTRIES = ServletContextListener.getConfigurationProperty("extract.max.entries", 0);
+    // maximum ratio of expanded to compressed size
+    private static long MAX_RATIO = ServletContextListener.getConfigurationProperty("extract.max.ratio", 0);
+    // maximum number of folder levels in an entry path
+    private static long MAX_DEPTH = ServletContextListener.getConfigurationProperty("extract.max.depth", 0);
+    // expanded size below which the ratio is not enforced, as tiny entries compress well
+    private static final long RATIO_THRESHOLD = 1024 * 1024;
+
+    // expanded bytes so far; shared by parallel workers
+    private final AtomicLong bytes = new AtomicLong();
+    // entries so far
+    private final AtomicLong entries = new AtomicLong();
+    // compressed source bytes read so far, for content without per-entry sizes
+    private CountingInputStream source;
+    // total compressed size, if known up front
+    private final long sourceSize;
+
+    /**
+     * Limits for an archive whose compressed source is read through
+     * source(); the ratio of entries without a compressed size is checked
+     * against what has been read of it.
+     */
+    ExtractionQuota() {
+        this(-1);
+    }
+
+    /**
+     * Limits for an archive of a known compressed size.
+     *
+     * @param sourceSize the archive file size in bytes
+     */
+    ExtractionQuota(long sourceSize) {
+        this.sourceSize = sourceSize;
+    }
+
+    /**
+     * Count the compressed archive content as it is read.
+     *
+     * @param in the compressed archive content
+     * @return an InputStream over the same content
+     */
+    InputStream source(InputStream in) {
+        source = new CountingInputStream(in);
+        return source;
+    }
+
+    /**
+     * Account for a new archive entry, checking the entry count and its path
+     * depth.
+     *
+     * @param name the entry name
+     * @throws IOException if a limit is exceeded
+     */
+    void checkEntry(String name) throws IOException {
+        if (MAX_ENTRIES > 0 && entries.incrementAndGet() > MAX_ENTRIES)
+            throw new ExtractionLimitException ("Archive exceeds the limit of " + MAX_ENTRIES + " entries.");
+
+        if (MAX_DEPTH > 0) {
+            int depth = 0;
+
+            for ( String part : name.split("[/\\\\]") )
+                if (!part.isEmpty() && !".".equals(part))
+                    ++depth;
+
+            if (depth > MAX_DEPTH)
+                throw new ExtractionLimitException ("Archive entry path is too deep: " + name);
+        }
+    }
+
+    /**
+     * Count the expanded content of an archive entry as it is read.
+     *
+     * @param in the entry content; not closed by closing the result
+     * @param compressedSize the compressed size of the entry, or -1 if unknown
+     * @return an InputStream over the same content
+     */
+    InputStream entry(InputStream in, long compressedSize) {
+        return new ProxyInputStream(in) {
+            // expanded bytes of this entry
+            private long count = 0;
+
+            @Override
+            protected void afterRead(int n) throws IOException {
+                if (n > 0) {
+                    count += n;
+                    check(count, compressedSize, bytes.addAndGet(n));
+                }
+            }
+
+            @Override
+            public void close() {
+                // the entry stream belongs to the archive
+            }
+        };
+    }
+
+    /**
+     * Check the limits after more entry content was read.
+     *
+     * @param count the expanded bytes of the current entry
+     * @param compressedSize the compressed size of the entry, or -1 if unknown
+     * @param total the expanded bytes of the archive
+     * @throws IOException if a limit is exceeded
+     */
+    private void check(long count, long compressedSize, long total) throws IOException {
+        if (MAX_BYTES > 0 && total > MAX_BYTES)
+            throw new ExtractionLimitException ("Archive exceeds the limit of " + MAX_BYTES + " expanded bytes.");
+
+        if (MAX_RATIO > 0) {
+            // per entry if its compressed size is known, otherwise over the archive
+            long expanded = (compressedSize > 0) ? count : total;
+            long compressed = (compressedSize > 0) ? compressedSize :
+                    (null!=source) ? source.getByteCount() : sourceSize;
+
+            if (compressed > 0 && expanded > RATIO_THRESHOLD && expanded / compressed > MAX_RATIO)
+                throw new ExtractionLimitException ("Archive exceeds the compression ratio limit of " + MAX_RATIO + ".");
+        }
+    }
+}
@@ -5,24 +5,43 @@ package gov.osti.archiver.util;
 import gov.osti.archiver.entity.Project;
 import gov.osti.archiver.listener.ServletContextListener;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.eclipse.jgit.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipEntry;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Take various input File types of compressed archives and unpack them into a
@@ -36,9 +55,161 @@ public class Extractor {
     // base file folder containing archive uploads
     private static String FILE_BASEDIR = ServletContextListener.getConfigurationProperty("file.archive");
     private static String FILE_LIMITED_BASEDIR = ServletContextListener.getConfigurationProperty("file.limited.archive");
+    // number of worker threads for zip extraction; 1 extracts serially
+    private static int EXTRACT_THREADS = (int) ServletContextListener.getConfigurationProperty("extract.threads", 1);
+    // I/O buffer size for archive reads and entry writes
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // per-Thread entry copy buffer, reused across entries and extractions
+    private static final ThreadLocal<ByteBuffer> COPY_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+    // number of buffers decompression may run ahead of extraction; 0 disables pipelining
+    private static int PIPELINE_CHUNKS = (int) ServletContextListener.getConfigurationProperty("extract.pipeline.chunks", 16);
+    // how far format detection may read into compressed content (a full bzip2 block)
+    private static final int DETECT_LIMIT = 4 * 1024 * 1024;
     
     /**
-     * Attempt to open an ArchiveInputStream based on the file_name specified.
+     * Open a buffered InputStream reading the given file through a FileChannel.
+     * 
+     * @param file_name ABSOLUTE file system path to the file to open
+     * @return a buffered InputStream on the file
+     * @throws IOException on file IO errors
+     */
+    private static InputStream openSource(String file_name) throws IOException {
+        return new BufferedInputStream(
+                Channels.newInputStream(
+                        FileChannel.open(Paths.get(file_name), StandardOpenOption.READ)), BUFFER_SIZE);
+    }
+
+    /**
+     * Run a decompressing InputStream on its own Thread if pipelining is
+     * configured, so decompression overlaps with writing out the entries.
+     * 
+     * @param in the decompressing InputStream
+     * @return an InputStream over the same content
+     */
+    private static InputStream pipeline(InputStream in) {
+        return (PIPELINE_CHUNKS > 0) ? new PipelinedInputStream(in, BUFFER_SIZE, PIPELINE_CHUNKS) : in;
+    }
+
+    /**
+     * Write the remaining content of an InputStream to a file, using this
+     * Thread's reusable copy buffer and a FileChannel for output.  As with
+     * Files.copy(), an existing target file is an error unless it is to be
+     * replaced.
+     * 
+     * If the blob store is enabled, the content is written to the store and
+     * the target linked to it.
+     * 
+     * @param in the InputStream to read the content from
+     * @param target the file to create
+     * @param replace true to overwrite any existing target file, such as one
+     * left partially written by an interrupted extraction
+     * @return the number of bytes written
+     * @throws IOException on file IO errors, or if the target exists
+     */
+    static long writeEntry(InputStream in, Path target, boolean replace) throws IOException {
+        ByteBuffer buffer = COPY_BUFFER.get();
+        long total = 0;
+        BlobStore store = BlobStore.forTarget(target);
+        Path file = (null==store) ? target : store.createTemp();
+        MessageDigest digest = (null==store) ? null : BlobStore.newDigest();
+
+        try (FileChannel out = (replace || null!=store) ?
+                FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE) :
+                FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int count;
+
+            while ( (count = in.read(buffer.array(), 0, buffer.capacity())) != -1 ) {
+                buffer.clear();
+                buffer.limit(count);
+                if (null!=digest)
+                    digest.update(buffer.array(), 0, count);
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+                total += count;
+            }
+        } catch ( IOException e ) {
+            if (null!=store)
+                Files.deleteIfExists(file);
+            throw e;
+        }
+
+        if (null!=store)
+            store.store(file, digest.digest(), target, replace);
+
+        return total;
+    }
+
+    /**
+     * Identify the compression format of a stream from its leading signature
+     * bytes.  The stream must support mark/reset, and is left at its original
+     * position.
+     * 
+     * @param in the InputStream to examine
+     * @return the CompressorStreamFactory name of the compression format, or
+     * null if not a recognized compressed stream
+     * @throws IOException on file IO errors
+     */
+    public static String detectCompression(InputStream in) throws IOException {
+        try {
+            return CompressorStreamFactory.detect(in);
+        } catch ( CompressorException e ) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            // no known signature, assume uncompressed
+            return null;
+        }
+    }
+
+    /**
+     * Wrap a stream in the decompressor for the given compression format.
+     * 
+     * @param compression the CompressorStreamFactory name of the format, or
+     * null if uncompressed
+     * @param in the compressed InputStream
+     * @return an InputStream of the uncompressed content
+     * @throws ArchiveException if the compression format is not supported
+     */
+    private static InputStream openDecompressor(String compression, InputStream in) throws ArchiveException {
+        if (null==compression)
+            return in;
+
+        try {
+            return new CompressorStreamFactory().createCompressorInputStream(compression, in);
+        } catch ( CompressorException e ) {
+            throw new ArchiveException("Unsupported compression format: " + compression);
+        }
+    }
+
+    /**
+     * Identify the archive format of a stream from its leading signature bytes,
+     * looking through any compression.  The stream must support mark/reset, and
+     * is left at its original position.
+     * 
+     * @param in the InputStream to examine
+     * @return a String identifying the underlying type of archive; should be one of
+     * "zip", "tar", "ar", "cpio", etc.  Full list in Apache ArchiveStreamFactory constants.
+     * @throws ArchiveException if not a recognized archive format
+     * @throws IOException on file IO errors
+     */
+    public static String detectFormat(InputStream in) throws ArchiveException, IOException {
+        String compression = detectCompression(in);
+
+        if (null==compression)
+            return ArchiveStreamFactory.detect(in);
+
+        // peek the decompressed head, then rewind to the compressed content;
+        // decompressors may set their own marks, so they get a separate buffer
+        in.mark(DETECT_LIMIT);
+        try {
+            return ArchiveStreamFactory.detect(new BufferedInputStream(openDecompressor(compression, new BufferedInputStream(in))));
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Attempt to open an ArchiveInputStream for the file_name specified,
+     * identifying any compression from the file content.
      * 
      * @param file_name ABSOLUTE file system path to the file to open
      * @return an ArchiveInputStream if possible, or null if error or invalid
@@ -46,66 +217,57 @@ public class Extractor {
      * @throws IOException on file IO errors
      */
     public static ArchiveInputStream openArchiveStream(String file_name) throws ArchiveException, IOException {
-        ArchiveInputStream in;
+        return openArchiveStream(file_name, null);
+    }
 
+    /**
+     * Attempt to open an ArchiveInputStream for the file_name specified,
+     * counting the archive content read against extraction limits.
+     * 
+     * @param file_name ABSOLUTE file system path to the file to open
+     * @param quota the extraction limits to count against, or null if none
+     * @return an ArchiveInputStream if possible, or null if error or invalid
+     * @throws ArchiveException on archiver errors, or unable to identify type
+     * @throws IOException on file IO errors
+     */
+    private static ArchiveInputStream openArchiveStream(String file_name, ExtractionQuota quota) throws ArchiveException, IOException {
         if (null==file_name)
             return null;
 
-        if (file_name.toLowerCase().endsWith(".gz") || file_name.toLowerCase().endsWith(".tgz")) {
-            in = new ArchiveStreamFactory()
-                    .createArchiveInputStream(
-                            new BufferedInputStream(
-                                    new GzipCompressorInputStream(
-                                            new FileInputStream(file_name))));
-        }
-        else if (file_name.toLowerCase().endsWith(".bz2")) {
-            in = new ArchiveStreamFactory()
-                    .createArchiveInputStream(
-                            new BufferedInputStream(
-                                    new BZip2CompressorInputStream(
-                                            new FileInputStream(file_name))));
-        }
-        else {
-            in = new ArchiveStreamFactory()
-                    .createArchiveInputStream(
-                            new BufferedInputStream(new FileInputStream(file_name)));
+        InputStream in = (null==quota) ? openSource(file_name) : quota.source(openSource(file_name));
+        try {
+            String compression = detectCompression(in);
+
+            if (null!=compression)
+                in = new BufferedInputStream(pipeline(openDecompressor(compression, in)), BUFFER_SIZE);
+
+            return new ArchiveStreamFactory().createArchiveInputStream(in);
+        } catch ( ArchiveException | IOException e ) {
+            try{in.close();} catch (Exception ex) {}
+            throw e;
         }
-        return in;
     }
 
     /**
-     * Attempt to figure out what the file is based on its file name.
+     * Attempt to figure out what an uploaded file is from its content, before
+     * it is stored.  Only the leading bytes are examined; the returned stream
+     * still contains the complete ORIGINAL content.
      * 
+     * @param file the uploaded file content
      * @param file_name the FILE NAME of the archive file
-     * @return a String identifying the underlying type of archive if possible, or null if not; should be one of
-     * "zip", "tar", "ar", "cpio", etc.  Full list in Apache ArchiveStreamFactory constants.
-     * 
-     * @throws ArchiveException on archiver errors
+     * @return a BufferedInputStream of the original content, or null if no file
+     * @throws ArchiveException if not a recognized archive format
      * @throws IOException on file IO errors
      */
     public static BufferedInputStream detectArchiveFormat(InputStream file, String file_name) throws ArchiveException, IOException {
-        String format = null;
         BufferedInputStream bis = null;
 
         if (null!=file) {
+            bis = new BufferedInputStream(file, BUFFER_SIZE);
+
             try {
-                if (file_name.toLowerCase().endsWith("gz")) {
-                    bis = new BufferedInputStream(
-                        new GzipCompressorInputStream(
-                            file));
-                }
-                else if (file_name.toLowerCase().endsWith("bz2")) {
-                    bis = new BufferedInputStream(
-                                new BZip2CompressorInputStream(
-                                    file));
-                }
-                else
-                    bis = new BufferedInputStream(
-                        file);
-                
-                // This would close the stream, but it is needed for the saveFile function
-                // if (bis != null) try{bis.close();} catch (Exception e) {}
-            } catch (Exception e) {
+                log.debug("Detected " + detectFormat(bis) + " archive for " + file_name);
+            } catch ( ArchiveException e ) {
                 throw new ArchiveException("Invalid or unknown archive format.");
             }
         }
@@ -124,10 +286,31 @@ public class Extractor {
      * @param project the Project in question
      * @return the filename path to the git repository created, or null if
      * none/no file to uncompress
-     * @throws IOException on file IO errors
+     * @throws IOException on file IO errors, or if an extraction limit is exceeded
      * @throws ArchiveException on uncompress extraction errors
      */
     public static String uncompressArchive(Project project) throws IOException, ArchiveException {
+        return uncompressArchive(project, null);
+    }
+
+    /**
+     * Given a Project with a FileName attached, attempt to uncompress the
+     * archive file into a sub-folder, reusing the unchanged content of a
+     * previous version of the archive.
+     * 
+     * File entries whose size, time and CRC match the previous extraction's
+     * manifest are hard-linked from its folder instead of being extracted
+     * again.
+     * 
+     * @param project the Project in question
+     * @param previous an earlier extracted Project of the same archive, or
+     * null if none
+     * @return the filename path to the git repository created, or null if
+     * none/no file to uncompress
+     * @throws IOException on file IO errors, or if an extraction limit is exceeded
+     * @throws ArchiveException on uncompress extraction errors
+     */
+    public static String uncompressArchive(Project project, Project previous) throws IOException, ArchiveException {
         if (null==project.getFileName())
             return null;
 
@@ -141,129 +324,463 @@ public class Extractor {
         File folder = base_file_path.toFile();
         if (!folder.exists())
             throw new IOException ("Extraction folder does not exist.");
-            
+
+        ExtractionManifest manifest = (null==previous || StringUtils.isEmptyOrNull(previous.getCacheFolder())) ?
+                new ExtractionManifest(project.getFileName(), null, null) :
+                new ExtractionManifest(project.getFileName(), previous.getFileName(), Paths.get(previous.getCacheFolder()));
+
+        return uncompressArchive(project.getFileName(), base_file_path, manifest);
+    }
+
+    /**
+     * Determine whether the extraction of an archive file was interrupted
+     * (such as by a restart), and may be resumed from its checkpoint.
+     * 
+     * @param file_name ABSOLUTE file system path to the archive
+     * @return true if an extraction checkpoint exists for the archive
+     */
+    public static boolean isInterrupted(String file_name) {
+        return null!=file_name && ExtractionCheckpoint.exists(file_name);
+    }
+
+    /**
+     * Get the files an archive upload keeps alongside its extracted content:
+     * the archive itself, and its extraction manifest and checkpoint.
+     * 
+     * @param file_name ABSOLUTE file system path to the archive
+     * @return the Paths of the archive and its extraction records
+     */
+    public static List<Path> getArchiveFiles(String file_name) {
+        List<Path> files = new ArrayList<>();
+
+        files.add(Paths.get(file_name));
+        files.add(Paths.get(file_name + ExtractionManifest.SUFFIX));
+        files.add(Paths.get(file_name + ExtractionCheckpoint.SUFFIX));
+
+        return files;
+    }
+
+    /**
+     * Uncompress an archive file into the given folder, choosing the
+     * extraction method by the archive format.
+     * 
+     * @param file_name ABSOLUTE file system path to the archive
+     * @param base_file_path the location to extract into
+     * @return the filename path to the extracted content
+     * @throws IOException on file IO errors, or if an extraction limit is exceeded
+     * @throws ArchiveException on uncompress extraction errors
+     */
+    static String uncompressArchive(String file_name, Path base_file_path) throws IOException, ArchiveException {
+        return uncompressArchive(file_name, base_file_path, new ExtractionManifest(file_name, null, null));
+    }
+
+    /**
+     * Uncompress an archive file into the given folder, choosing the
+     * extraction method by the archive format, and save its manifest.
+     * 
+     * @param file_name ABSOLUTE file system path to the archive
+     * @param base_file_path the location to extract into
+     * @param manifest the manifest to record entries in, and link unchanged
+     * entries from
+     * @return the filename path to the extracted content
+     * @throws IOException on file IO errors, or if an extraction limit is exceeded
+     * @throws ArchiveException on uncompress extraction errors
+     */
+    private static String uncompressArchive(String file_name, Path base_file_path, ExtractionManifest manifest) throws IOException, ArchiveException {
         // ZipInputStream has known issues with extracting some types of 
         // archives. ZipFile is the reccommended way to handle and isn't 
-        // compatible with the way other archives are handled
-        if(project.getFileName().toLowerCase().endsWith(".zip"))
-            return uncompressZipArchive(project, base_file_path);
+        // compatible with the way other archives are handled; 7z archives
+        // likewise need random access to the file
+        String format;
+        try (InputStream in = openSource(file_name)) {
+            format = (null==detectCompression(in)) ? ArchiveStreamFactory.detect(in) : null;
+        }
+
+        String result;
+        if (ArchiveStreamFactory.ZIP.equals(format))
+            result = uncompressZipArchive(file_name, base_file_path, EXTRACT_THREADS, manifest);
+        else if (ArchiveStreamFactory.SEVEN_Z.equals(format))
+            result = uncompressSevenZArchive(file_name, base_file_path, manifest);
         else
-            return uncompressOtherArchive(project, base_file_path);
+            result = uncompressOtherArchive(file_name, base_file_path, manifest);
+
+        manifest.save();
+        return result;
+    }
+
+    /**
+     * Get the modification time of an archive entry.
+     * 
+     * @param entry the archive entry
+     * @return the time in milliseconds, or -1 if not recorded
+     */
+    private static long lastModified(ArchiveEntry entry) {
+        try {
+            Date date = entry.getLastModifiedDate();
+            return (null==date) ? -1 : date.getTime();
+        } catch ( UnsupportedOperationException e ) {
+            // 7z entries without a time
+            return -1;
+        }
+    }
+
+    /**
+     * Validate an archive entry name, and create any folders it needs.
+     * 
+     * Entries MAY NOT be ABSOLUTE, nor be "above" the PARENT FOLDER.
+     * 
+     * @param base_file_path the location being extracted into
+     * @param name the name of the archive entry
+     * @param isDirectory true if the entry is a folder
+     * @return the Path to extract the entry to
+     * @throws IOException on illegal paths, or unable to create folders
+     */
+    private static Path prepareEntry(Path base_file_path, String name, boolean isDirectory) throws IOException {
+        Path target = base_file_path.resolve(name);
+
+        if (isDirectory) {
+            // we cannot go "above" the PARENT FOLDER
+            if (!target.startsWith(base_file_path))
+                throw new IOException ("Illegal relative or absolute path in archive.");
+
+            // create folder
+            if (!target.toFile().mkdirs()) {
+                // Folder could have been created earlier, since .mkdirs() creates parent folders as well
+                if(!target.toFile().exists())
+                    throw new IOException ("Unable to create folder: " + name);
+            }
+        } else {
+            // might contain a directory reference
+            if (!target.startsWith(base_file_path))
+                throw new IOException ("Illegal relative or absolute path in file.");
+
+            // create any intervening file paths necessary if applicable
+            File parent = target.toFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs())
+                throw new IOException ("Unable to create folder for file: " + name);
+        }
+        return target;
     }
 
     /*
-     * Given a Project with a FileName attached and not a zip archive, 
+     * Given an archive file name that is not a zip or 7z archive, 
      * attempt to uncompress the archive file into a sub-folder.
      * 
      * Filename is considered to be an absolute path; contents will be 
      * uncompressed into a folder based on the configured FILE BASEDIR value and
      * PROJECT ID.  Each PROJECT is considered to be a UNIQUE archive area.
      * 
-     * @param project the Project in question
+     * @param file_name ABSOLUTE file system path to the archive
      * @param base_file_path the location to save the archive
+     * @param manifest the manifest to record entries in
      * @return the filename path to the git repository created, or null if
      * none/no file to uncompress
      * @throws IOException on file IO errors
      * @throws ArchiveException on uncompress extraction errors
      */
-    private static String uncompressOtherArchive(Project project, Path base_file_path) throws IOException, ArchiveException {
+    private static String uncompressOtherArchive(String file_name, Path base_file_path, ExtractionManifest manifest) throws IOException, ArchiveException {
+        ExtractionCheckpoint checkpoint = ExtractionCheckpoint.open(file_name, 1);
+        ExtractionQuota quota = new ExtractionQuota();
         // open the archiver stream
-        ArchiveInputStream in = openArchiveStream(project.getFileName());
+        ArchiveInputStream in = openArchiveStream(file_name, quota);
+
+        try {
+            extractEntries(in, base_file_path, quota, checkpoint, manifest);
+        } finally {
+            if (in != null) try{in.close();} catch (Exception e) {}
+        }
+        checkpoint.delete();
+        
+        // send back the file path created
+        return base_file_path.toString();
+   }
+
+    /**
+     * Read each entry of an ArchiveInputStream, creating folders and
+     * extracting files under the given base folder.  Entries completed by an
+     * interrupted extraction are skipped over.
+     * 
+     * @param in the ArchiveInputStream to read
+     * @param base_file_path the location to extract into
+     * @param quota the extraction limits to enforce
+     * @param checkpoint the progress record to update, or null if the
+     * extraction is not resumable
+     * @param manifest the manifest to record entries in
+     * @throws IOException on file IO errors, illegal entry paths, or if a
+     * limit is exceeded
+     */
+    private static void extractEntries(ArchiveInputStream in, Path base_file_path, ExtractionQuota quota, ExtractionCheckpoint checkpoint, ExtractionManifest manifest) throws IOException {
         // iterate through the Archive, creating folders and extracting files.
         ArchiveEntry entry;
+        long index = 0;
+        boolean resuming = null!=checkpoint && checkpoint.isResuming();
         
         while ( (entry=in.getNextEntry()) != null ) {
-            // folders MAY NOT be ABSOLUTE, nor be "above" the PARENT FOLDER
-            if (entry.isDirectory()) {
-                // we cannot go "above" the PARENT FOLDER
-                if (!base_file_path.resolve(entry.getName()).startsWith(base_file_path))
-                    throw new IOException ("Illegal relative or absolute path in archive.");
-
-                // create folder
-                if (!base_file_path.resolve(entry.getName()).toFile().mkdirs()) {
-                    // Folder could have been created earlier, since .mkdirs() creates parent folders as well
-                    if(!base_file_path.resolve(entry.getName()).toFile().exists())
-                        throw new IOException ("Unable to create folder: " + entry.getName());
-                }
-            } else {
-                // might contain a directory reference
-                if (!base_file_path.resolve(entry.getName()).startsWith(base_file_path))
-                    throw new IOException ("Illegal relative or absolute path in file.");
-                
-                // create any intervening file paths necessary if applicable
-                File parent = base_file_path.resolve(entry.getName()).toFile().getParentFile();
-                if (!parent.exists() && !parent.mkdirs())
-                    throw new IOException ("Unable to create folder for file: " + entry.getName());
-                
-                // extract file
-                Files.copy(in, base_file_path.resolve(entry.getName()));
+            quota.checkEntry(entry.getName());
+            if (null!=checkpoint && checkpoint.isDone(0, index++)) {
+                if (!entry.isDirectory())
+                    manifest.record(entry.getName(), entry.getSize(), lastModified(entry), -1);
+                continue;
             }
+
+            Path target = prepareEntry(base_file_path, entry.getName(), entry.isDirectory());
+
+            // extract file, unless unchanged from the previous version
+            long bytes = 0;
+            if (!entry.isDirectory() && !manifest.link(entry.getName(), entry.getSize(), lastModified(entry), -1, target, resuming))
+                bytes = writeEntry(quota.entry(in, -1), target, resuming);
+
+            if (null!=checkpoint)
+                checkpoint.done(0, bytes);
         }
+    }
 
-        if (in != null) try{in.close();} catch (Exception e) {}
-        
-        // send back the file path created
-        return base_file_path.toString();
-   }
+    /**
+     * Determine whether an uploaded archive can be extracted as it is read,
+     * rather than needing random access to the stored file (zip, 7z).  The
+     * stream must support mark/reset, and is left at its original position.
+     * 
+     * @param in the uploaded content
+     * @return true if the archive may be extracted while streaming
+     * @throws IOException on file IO errors
+     */
+    public static boolean isStreamable(InputStream in) throws IOException {
+        try {
+            String format = detectFormat(in);
 
+            return !ArchiveStreamFactory.ZIP.equals(format) && !ArchiveStreamFactory.SEVEN_Z.equals(format);
+        } catch ( ArchiveException e ) {
+            return false;
+        }
+    }
 
     /**
-     * Given a Project with a FileName attached and is a zip archive,
-     * attempt to uncompress the archive file into a sub-folder.
+     * Store an uploaded archive to a file and extract its content in the same
+     * read.  Everything read for extraction is written to the destination file
+     * as-is, and any remaining content after the archive ends is stored as
+     * well, so the file always holds the complete ORIGINAL upload.
      * 
-     * Filename is considered to be an absolute path; contents will be 
-     * uncompressed into a folder based on the configured FILE BASEDIR value and
-     * PROJECT ID.  Each PROJECT is considered to be a UNIQUE archive area.
+     * @param in the uploaded content, at its start; must support mark/reset
+     * @param destination the NEW file to store the upload in
+     * @param base_file_path the location to extract into
+     * @throws IOException on errors reading or storing the upload
+     * @throws ArchiveException if the content could not be extracted; the
+     * upload itself was stored in full
+     */
+    public static void saveAndExtract(InputStream in, Path destination, Path base_file_path) throws IOException, ArchiveException {
+        String compression = detectCompression(in);
+        ExtractionQuota quota = new ExtractionQuota();
+        ExtractionManifest manifest = new ExtractionManifest(destination.toString(), null, null);
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(destination, StandardOpenOption.CREATE_NEW), BUFFER_SIZE)) {
+            // decompressors may mark/reset their input, which must not reach the tee
+            InputStream tee = new BufferedInputStream(new TeeInputStream(in, out), BUFFER_SIZE);
+
+            try {
+                extractEntries(new ArchiveStreamFactory()
+                        .createArchiveInputStream(
+                                new BufferedInputStream(openDecompressor(compression, quota.source(tee)), BUFFER_SIZE)), base_file_path, quota, null, manifest);
+            } catch ( ArchiveException | IOException e ) {
+                // store the rest; if that works, the archive content was at fault
+                IOUtils.consume(tee);
+                throw new ArchiveException(e.getMessage(), e);
+            }
+
+            IOUtils.consume(tee);
+        }
+        manifest.save();
+    }
+
+    /**
+     * Uncompress a zip archive file into the given folder, using the indicated
+     * number of worker threads.
      * 
-     * @param project the Project in question
+     * With a single thread, entries are extracted in archive order.  Otherwise,
+     * all folders are created up front, and file entries are split across a
+     * bounded fork-join pool, each worker inflating through its own ZipFile.
+     * 
+     * @param file_name ABSOLUTE file system path to the zip archive
      * @param base_file_path the location to save the archive
-     * @return the filename path to the git repository created, or null if
-     * none/no file to uncompress
+     * @param threads the number of extraction workers to use
+     * @return the filename path to the extracted content
+     * @throws IOException on file IO errors
+     */
+    static String uncompressZipArchive(String file_name, Path base_file_path, int threads) throws IOException {
+        return uncompressZipArchive(file_name, base_file_path, threads, new ExtractionManifest(file_name, null, null));
+    }
+
+    /**
+     * Uncompress a zip archive file into the given folder, using the indicated
+     * number of worker threads, and linking unchanged entries from a previous
+     * extraction.
+     * 
+     * @param file_name ABSOLUTE file system path to the zip archive
+     * @param base_file_path the location to save the archive
+     * @param threads the number of extraction workers to use
+     * @param manifest the manifest to record entries in
+     * @return the filename path to the extracted content
      * @throws IOException on file IO errors
-     * @throws ArchiveException on uncompress extraction errors
      */
-    private static String uncompressZipArchive(Project project, Path base_file_path) throws IOException, ArchiveException {        
+    private static String uncompressZipArchive(String file_name, Path base_file_path, int threads, ExtractionManifest manifest) throws IOException {
+        // file entries left to extract by the worker pool
+        List<String> files = new ArrayList<>();
+        // serial progress; the workers keep their own
+        ExtractionCheckpoint checkpoint = (threads > 1) ? null : ExtractionCheckpoint.open(file_name, 1);
+        ExtractionQuota quota = new ExtractionQuota(Files.size(Paths.get(file_name)));
+
         // open the Zip file
-        try ( ZipFile zipFile = new ZipFile(project.getFileName()) )
+        try ( ZipFile zipFile = new ZipFile(file_name) )
         {
             
             Enumeration <? extends ZipEntry> entries = zipFile.entries();
             // iterate through the Archive, creating folders and extracting files.
             ZipEntry entry;
+            long index = 0;
             
             while ( entries.hasMoreElements() ) {
                 entry = entries.nextElement();
-                // folders MAY NOT be ABSOLUTE, nor be "above" the PARENT FOLDER
-                if (entry.isDirectory()) {
-                    // we cannot go "above" the PARENT FOLDER
-                    if (!base_file_path.resolve(entry.getName()).startsWith(base_file_path))
-                        throw new IOException ("Illegal relative or absolute path in archive.");
-
-                    // create folder
-                    if (!base_file_path.resolve(entry.getName()).toFile().mkdirs()) {
-                        // Folder could have been created earlier, since .mkdirs() creates parent folders as well
-                        if(!base_file_path.resolve(entry.getName()).toFile().exists())
-                            throw new IOException ("Unable to create folder: " + entry.getName());
-                    }
-                } else {
-                    // might contain a directory reference
-                    if (!base_file_path.resolve(entry.getName()).startsWith(base_file_path))
-                        throw new IOException ("Illegal relative or absolute path in file.");
-                    
-                        // create any intervening file paths necessary if applicable
-                    File parent = base_file_path.resolve(entry.getName()).toFile().getParentFile();
-                    if (!parent.exists() && !parent.mkdirs())
-                        throw new IOException ("Unable to create folder for file: " + entry.getName());
-                        
-                        // extract file
-                    Files.copy(zipFile.getInputStream(entry), base_file_path.resolve(entry.getName()));
+                quota.checkEntry(entry.getName());
+                if (null!=checkpoint && checkpoint.isDone(0, index++)) {
+                    if (!entry.isDirectory())
+                        manifest.record(entry.getName(), entry.getSize(), entry.getTime(), entry.getCrc());
+                    continue;
                 }
+
+                Path target = prepareEntry(base_file_path, entry.getName(), entry.isDirectory());
+
+                // extract file now, or leave it for the workers
+                if (threads > 1) {
+                    if (!entry.isDirectory())
+                        files.add(entry.getName());
+                    continue;
+                }
+
+                // extract file, unless unchanged from the previous version
+                long bytes = 0;
+                if (!entry.isDirectory() && !manifest.link(entry.getName(), entry.getSize(), entry.getTime(), entry.getCrc(), target, checkpoint.isResuming()))
+                    try ( InputStream in = zipFile.getInputStream(entry) ) {
+                        bytes = writeEntry(quota.entry(in, entry.getCompressedSize()), target, checkpoint.isResuming());
+                    }
+                checkpoint.done(0, bytes);
             }
         } catch (Exception e) {
             throw e;
         }
+
+        if (!files.isEmpty())
+            extractZipEntries(file_name, base_file_path, files, threads, quota, manifest);
+        if (null!=checkpoint)
+            checkpoint.delete();
         
         // send back the file path created
         return base_file_path.toString();
     }
+
+    /**
+     * Extract the named file entries of a zip archive in parallel.  Folders are
+     * expected to exist already.  Entries are dealt out round-robin to each
+     * worker, which reads through its own ZipFile handle; each worker's share
+     * is a separate slice of the extraction checkpoint.
+     * 
+     * @param file_name ABSOLUTE file system path to the zip archive
+     * @param base_file_path the location to save the archive
+     * @param files the entry names to extract
+     * @param threads the number of extraction workers to use
+     * @param quota the extraction limits to enforce
+     * @param manifest the manifest to record entries in
+     * @throws IOException on file IO errors, or if a limit is exceeded
+     */
+    private static void extractZipEntries(String file_name, Path base_file_path, List<String> files, int threads, ExtractionQuota quota, ExtractionManifest manifest) throws IOException {
+        int workers = Math.min(threads, files.size());
+        ExtractionCheckpoint checkpoint = ExtractionCheckpoint.open(file_name, workers);
+        ForkJoinPool pool = new ForkJoinPool(workers);
+
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+
+            for ( int i = 0; i < workers; ++i ) {
+                final int first = i;
+
+                tasks.add(() -> {
+                    try ( ZipFile zipFile = new ZipFile(file_name) ) {
+                        long index = 0;
+
+                        for ( int n = first; n < files.size(); n += workers ) {
+                            ZipEntry entry = zipFile.getEntry(files.get(n));
+                            Path target = base_file_path.resolve(entry.getName());
+
+                            if (checkpoint.isDone(first, index++))
+                                manifest.record(entry.getName(), entry.getSize(), entry.getTime(), entry.getCrc());
+                            else if (manifest.link(entry.getName(), entry.getSize(), entry.getTime(), entry.getCrc(), target, checkpoint.isResuming()))
+                                checkpoint.done(first, 0);
+                            else
+                                try ( InputStream in = zipFile.getInputStream(entry) ) {
+                                    checkpoint.done(first, writeEntry(quota.entry(in, entry.getCompressedSize()), target, checkpoint.isResuming()));
+                                }
+                        }
+                    }
+                    return null;
+                });
+            }
+
+            // wait on all the workers, reporting the first failure
+            for ( Future<Void> task : pool.invokeAll(tasks) )
+                task.get();
+            checkpoint.delete();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException ("Extraction interrupted.");
+        } catch ( ExecutionException e ) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException ("Extraction failed: " + e.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Uncompress a 7z archive file into the given folder.  7z archives need
+     * random access to the file, so are read through a SevenZFile.
+     * 
+     * @param file_name ABSOLUTE file system path to the 7z archive
+     * @param base_file_path the location to save the archive
+     * @param manifest the manifest to record entries in
+     * @return the filename path to the extracted content
+     * @throws IOException on file IO errors
+     */
+    private static String uncompressSevenZArchive(String file_name, Path base_file_path, ExtractionManifest manifest) throws IOException {
+        ExtractionCheckpoint checkpoint = ExtractionCheckpoint.open(file_name, 1);
+        ExtractionQuota quota = new ExtractionQuota(Files.size(Paths.get(file_name)));
+
+        try ( SevenZFile sevenZFile = new SevenZFile(new File(file_name)) ) {
+            SevenZArchiveEntry entry;
+            long index = 0;
+
+            while ( (entry=sevenZFile.getNextEntry()) != null ) {
+                quota.checkEntry(entry.getName());
+                long crc = (entry.getHasCrc()) ? entry.getCrcValue() : -1;
+                if (checkpoint.isDone(0, index++)) {
+                    if (!entry.isDirectory())
+                        manifest.record(entry.getName(), entry.getSize(), lastModified(entry), crc);
+                    continue;
+                }
+
+                Path target = prepareEntry(base_file_path, entry.getName(), entry.isDirectory());
+
+                // extract file, unless unchanged from the previous version;
+                // empty files have no content stream
+                long bytes = 0;
+                if (!entry.isDirectory() && !manifest.link(entry.getName(), entry.getSize(), lastModified(entry), crc, target, checkpoint.isResuming()))
+                    try ( InputStream in = entry.hasStream() ? sevenZFile.getInputStream(entry) : new ByteArrayInputStream(new byte[0]) ) {
+                        bytes = writeEntry(quota.entry(in, -1), target, checkpoint.isResuming());
+                    }
+                checkpoint.done(0, bytes);
+            }
+        }
+        checkpoint.delete();
+
+        // send back the file path created
+        return base_file_path.toString();
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The means by which git repository content is transferred into the cache,
+ * and kept packed: the initial clone of a remote repository, fetches from it
+ * after, and garbage collection.  Receiving, indexing and repacking packs are
+ * the costly parts of maintaining a git cache, so they may be done in process
+ * by JGit, or by the git command line program, whose index-pack and repack
+ * run on several Threads and outside the heap.
+ *
+ * Everything else done with a cache (checkouts, resets, merges, status) is
+ * done by GitRepository with JGit, whichever backend is configured.
+ */
+public interface GitBackend {
+    /**
+     * Clone a remote repository into an empty folder.
+     *
+     * @param url the REPOSITORY URL
+     * @param path the Path to the (existing, empty) cache folder
+     * @param strategy how much of the repository to fetch
+     * @param depth the history depth of a SHALLOW clone
+     * @param mirror true for a bare mirror of every remote reference,
+     * false for a clone with a working tree
+     * @throws IOException on remote access or IO errors
+     */
+    void clone(String url, Path path, GitRepository.CloneStrategy strategy, int depth, boolean mirror) throws IOException;
+
+    /**
+     * Fetch from the origin remote of a repository.
+     *
+     * @param gitDir the git metadata folder of the repository
+     * @param url the REPOSITORY URL of the origin remote
+     * @param refspecs the refspecs to fetch, or null for those configured
+     * @param prune true to remove references gone from the remote
+     * @return the number of local references updated, created or removed
+     * @throws IOException on remote access or IO errors
+     */
+    int fetch(File gitDir, String url, List<String> refspecs, boolean prune) throws IOException;
+
+    /**
+     * Garbage collect a repository: repack its objects into as few packs as
+     * possible, with reachability bitmaps, and prune unreachable objects
+     * older than the repository's prune expiry (two weeks by default).
+     *
+     * @param gitDir the git metadata folder of the repository
+     * @throws IOException on IO errors
+     */
+    void gc(File gitDir) throws IOException;
+}
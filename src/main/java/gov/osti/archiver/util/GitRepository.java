@@ -3,29 +3,48 @@
 package gov.osti.archiver.util;
 
 import gov.osti.archiver.entity.Project;
+import gov.osti.archiver.listener.ServletContextListener;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.text.MessageFormat;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collection;
-import java.util.Set;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
 
 import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.PullResult;
+import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.CreateBranchCommand.SetupUpstreamMode;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.api.errors.WrongRepositoryStateException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.SymbolicRef;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.util.StringUtils;
 import org.slf4j.Logger;
@@ -41,6 +60,160 @@ public class GitRepository {
     /** GitHub API base URL **/
     private static final String GITHUB_BASE_URL = "https://api.github.com/repos/";
     
+    // git cache storage: "mirror" for bare mirrors; otherwise working-tree clones
+    private static String STORAGE = ServletContextListener.getConfigurationProperty("git.storage");
+    // fetch every remote reference as is, as "git clone --mirror" does
+    private static final String MIRROR_REFSPEC = "+refs/*:refs/*";
+    // suffix of a working-tree clone's git folder while it becomes a mirror
+    private static final String MIRROR_SUFFIX = ".mirror";
+
+    // first-time clone strategy: "full", "single-branch", "shallow" or "blobless"
+    private static String CLONE_STRATEGY = ServletContextListener.getConfigurationProperty("git.clone.strategy");
+    // history depth of a shallow clone
+    private static long CLONE_DEPTH = ServletContextListener.getConfigurationProperty("git.clone.depth", 1);
+    // fetch every branch into remote-tracking references, as a full clone does
+    private static final String BRANCHES_REFSPEC = "+refs/heads/*:refs/remotes/origin/*";
+
+    // days a working tree may go on being trusted clean without a full status scan (0 to always scan)
+    private static long STATUS_VERIFY_DAYS = ServletContextListener.getConfigurationProperty("git.status.verify.days", 7);
+    // file in the git folder recording the state a working tree was last known clean in
+    private static final String CLEAN_STATE = "archiver-clean";
+
+    // clones and fetches by "jgit" in process, or by the "cli" git command line program
+    private static GitBackend BACKEND = ("cli".equalsIgnoreCase(ServletContextListener.getConfigurationProperty("git.backend"))) ?
+            new CliGitBackend() : new JGitBackend();
+
+    /**
+     * How much of a repository a first-time clone fetches, from most to least.
+     * All but a full clone are completed by the next maintenance pass.
+     */
+    public enum CloneStrategy {
+        // every branch, with full history
+        FULL,
+        // the default branch only
+        SINGLE_BRANCH,
+        // the default branch, to a limited history depth
+        SHALLOW,
+        // every commit and tree, but file content only as needed
+        BLOBLESS;
+
+        /**
+         * Look up a strategy by its configuration name.
+         * 
+         * @param name the name, such as "single-branch"
+         * @return the CloneStrategy, or FULL if none or unknown
+         */
+        public static CloneStrategy of(String name) {
+            if (StringUtils.isEmptyOrNull(name))
+                return FULL;
+            try {
+                return valueOf(name.trim().toUpperCase().replace('-', '_'));
+            } catch ( IllegalArgumentException e ) {
+                log.warn("Unknown git clone strategy \"" + name + "\", using full clones.");
+                return FULL;
+            }
+        }
+    }
+
+    // seconds remote references are cached
+    private static long LS_REMOTE_TTL = ServletContextListener.getConfigurationProperty("git.lsremote.ttl", 120);
+    // remote references recently advertised, by repository URL
+    private static final Map<String, RemoteRefs> remoteRefs = new ConcurrentHashMap<>();
+
+    /**
+     * The references a remote repository advertised, and when.
+     */
+    private static class RemoteRefs {
+        private final Map<String, Ref> refs;
+        private final long expires;
+
+        private RemoteRefs(Map<String, Ref> refs) {
+            this.refs = refs;
+            this.expires = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LS_REMOTE_TTL);
+        }
+    }
+
+    /**
+     * List the references of a remote repository, as "git ls-remote" would.
+     * Results are cached for a short time, so the several steps of a
+     * maintenance pass over a Project ask the remote only once.
+     * 
+     * @param url the REPOSITORY URL
+     * @return the remote references, by name
+     * @throws GitAPIException on remote access errors
+     */
+    private static Map<String, Ref> lsRemote(String url) throws GitAPIException {
+        RemoteRefs cached = remoteRefs.get(url);
+
+        if (null!=cached && cached.expires > System.currentTimeMillis())
+            return cached.refs;
+
+        Map<String, Ref> refs = Git.lsRemoteRepository().setRemote(url).callAsMap();
+        cacheRemoteRefs(url, refs);
+        return refs;
+    }
+
+    /**
+     * Remember the references a remote repository advertised, clearing out
+     * any expired entries.
+     * 
+     * @param url the REPOSITORY URL
+     * @param refs the advertised references, by name
+     */
+    static void cacheRemoteRefs(String url, Map<String, Ref> refs) {
+        if (LS_REMOTE_TTL <= 0)
+            return;
+
+        long now = System.currentTimeMillis();
+        remoteRefs.values().removeIf((entry) -> entry.expires <= now);
+        remoteRefs.put(url, new RemoteRefs(refs));
+    }
+
+    /**
+     * Forget all cached remote references, as at the start of a maintenance
+     * pass.
+     */
+    public static void clearRemoteRefs() {
+        remoteRefs.clear();
+    }
+
+    /**
+     * Look up the HEAD reference of a remote repository.
+     * 
+     * @param url the REPOSITORY URL
+     * @return the remote HEAD
+     * @throws Exception if the remote has no HEAD, or on remote access errors
+     */
+    static Ref getRemoteHead(String url) throws Exception {
+        Ref ref = lsRemote(url).get(Constants.HEAD);
+        if (ref == null) {
+            throw new Exception("Unable to locate remote HEAD for processing!");
+        }
+        return ref;
+    }
+    
+    /**
+     * List the tips of the remote references a Project's git cache follows,
+     * in the manner of "git ls-remote", sorted by name: every reference for a
+     * bare mirror, otherwise HEAD, branches and tags.  The listing changes
+     * whenever anything the cache would fetch changes, so matching one taken
+     * at the last maintenance means there is nothing to fetch.
+     * 
+     * @param project the Project
+     * @return the tips, one "SHA name" (or "ref: target name") line each
+     * @throws GitAPIException on remote access errors
+     */
+    public static String listRemoteTips(Project project) throws GitAPIException {
+        boolean mirror = isMirror(project);
+
+        return new TreeMap<>(lsRemote(project.getRepositoryLink())).values().stream()
+                .filter((ref) -> mirror || Constants.HEAD.equals(ref.getName()) ||
+                        ref.getName().startsWith(Constants.R_HEADS) || ref.getName().startsWith(Constants.R_TAGS))
+                .map((ref) -> ((ref.isSymbolic()) ? "ref: " + ref.getTarget().getName() : ObjectId.toString(ref.getObjectId())) +
+                        " " + ref.getName())
+                .collect(Collectors.joining("\n"));
+    }
+
     /**
      * Determine if this is a GIT Repository URL.
      * 
@@ -52,12 +225,7 @@ public class GitRepository {
         url = url.replaceFirst("(?:\\/|[.]git)?$", ".git");
 
         try {
-            Collection<Ref> references = Git
-                    .lsRemoteRepository()
-                    .setHeads(true)
-                    .setTags(true)
-                    .setRemote(url)
-                    .call();
+            lsRemote(url);
             
             // if we get here with no EXCEPTION, assume it's a VALID REPOSITORY.
             return true;
@@ -69,27 +237,113 @@ public class GitRepository {
     }
     
     /**
-     * Perform an initial checkout of a Project.
+     * Perform an initial checkout of a Project: a bare mirror of all its
+     * references if mirror storage is configured, otherwise a clone with a
+     * working tree.  How much is fetched follows the configured clone
+     * strategy, and the clone is made by the configured GitBackend.
      * 
      * @param url the REPOSITORY URL
      * @param path the Path to the output cache folder
      * @throws IOException on IO errors
      */
     public static void clone(String url, Path path) throws IOException {
-        try (Git git = Git
-            .cloneRepository()
-            .setURI(url)
-            .setDirectory(Files.
-                    createDirectories(path).toFile())
-            .setCloneAllBranches(true)
-            .call()) {
-            // do nothing, just try-with-resources to close file locks
-        } catch ( GitAPIException e ) {
-            log.warn("Git for URL: " + url + " failed: " + e.getMessage());
-            throw new IOException("Git Failure: " + e.getMessage());
+        BACKEND.clone(url, Files.createDirectories(path), CloneStrategy.of(CLONE_STRATEGY),
+                (int) Math.max(1, CLONE_DEPTH), isMirrorStorage());
+    }
+
+    /**
+     * Locate the git metadata folder of a Project's cache.
+     * 
+     * @param project the Project
+     * @return the cache folder for a bare repository, else its ".git" folder
+     */
+    private static File getGitDir(Project project) {
+        File cf = new File(project.getCacheFolder());
+
+        return (isBare(cf.toPath())) ? cf : new File(cf, Constants.DOT_GIT);
+    }
+
+    /**
+     * Determine whether a Project's git cache is yet to be completed, having
+     * been cloned by a strategy other than a full clone: a shallow history,
+     * missing file content, or only some of the branches.
+     * 
+     * @param project the Project to check
+     * @return true if the cache needs deepening
+     * @throws IOException on file IO errors
+     */
+    public static boolean isPartial(Project project) throws IOException {
+        File gitDir = getGitDir(project);
+
+        if (new File(gitDir, "shallow").exists())
+            return true;
+
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+            StoredConfig config = repo.getConfig();
+            String[] refspecs = config.getStringList(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "fetch");
+
+            // missing content, or fetching named branches rather than all of them
+            return config.getBoolean(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "promisor", false) ||
+                    0 == refspecs.length || !refspecs[0].contains("*");
         }
     }
-    
+
+    /**
+     * Complete a partially cloned git cache: fetch every branch (or for a
+     * mirror, every reference), the full history and all file content.
+     * Shallow and blobless caches are completed with the git command line.
+     * 
+     * @param project the Project to complete
+     * @return a String describing the successful process
+     * @throws Exception on API or other IO error
+     */
+    public static String deepen(Project project) throws Exception {
+        File gitDir = getGitDir(project);
+        boolean shallow = new File(gitDir, "shallow").exists();
+        boolean blobless;
+
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+            StoredConfig config = repo.getConfig();
+
+            blobless = config.getBoolean(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "promisor", false);
+
+            // fetch every branch from now on
+            config.setStringList(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "fetch",
+                    Collections.singletonList((repo.isBare()) ? MIRROR_REFSPEC : BRANCHES_REFSPEC));
+            if (repo.isBare())
+                config.setBoolean(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "mirror", true);
+            // and all file content
+            config.unset(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "partialclonefilter");
+            config.save();
+        }
+
+        try {
+            if (shallow) {
+                CliGitBackend.run(gitDir, "fetch", "--unshallow", Constants.DEFAULT_REMOTE_NAME);
+            } else if (blobless) {
+                CliGitBackend.run(gitDir, "fetch", "--refetch", Constants.DEFAULT_REMOTE_NAME);
+            } else {
+                BACKEND.fetch(gitDir, project.getRepositoryLink(), null, false);
+            }
+
+            if (blobless) {
+                // no longer relies on the remote for missing objects
+                try (Repository repo = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+                    StoredConfig config = repo.getConfig();
+
+                    config.unset(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "promisor");
+                    config.unset(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null, "partialclone");
+                    config.save();
+                }
+            }
+
+            return "Deepened to a full clone.";
+        } catch ( IOException e ) {
+            log.warn("DEEPEN IO Error on #" + project.getProjectId());
+            throw e;
+        }
+    }
+
     /**
      * Attempt to identify the PROJECT NAME from the given URL.  
      * 
@@ -186,24 +440,230 @@ public class GitRepository {
         return !StringUtils.isEmptyOrNull(getTagFromUrl(url));
     }
 
-     /**
+    /**
+     * Determine whether new git caches are kept as bare mirrors.
+     * 
+     * @return true if git.storage is "mirror"
+     */
+    public static boolean isMirrorStorage() {
+        return "mirror".equalsIgnoreCase(STORAGE);
+    }
+
+    /**
+     * Determine whether a folder is a bare git repository, whose metadata is
+     * the folder itself rather than a ".git" folder within it.
+     * 
+     * @param folder the folder to check
+     * @return true if the folder holds a git HEAD, objects and refs
+     */
+    public static boolean isBare(Path folder) {
+        return Files.isRegularFile(folder.resolve(Constants.HEAD)) &&
+                Files.isDirectory(folder.resolve(Constants.OBJECTS)) &&
+                Files.isDirectory(folder.resolve("refs"));
+    }
+
+    /**
+     * Determine whether a Project's git cache is a bare mirror.
+     * 
+     * @param project the Project to check
+     * @return true if its cache folder is a bare repository
+     */
+    public static boolean isMirror(Project project) {
+        return !StringUtils.isEmptyOrNull(project.getCacheFolder()) && isBare(Paths.get(project.getCacheFolder()));
+    }
+
+    /**
+     * Convert a Project's working-tree clone into a bare mirror, in place: its
+     * git folder becomes the cache folder, set to mirror every remote
+     * reference, and the working tree is removed.  The next fetch brings in
+     * all remote references, and prunes the remote-tracking ones.
+     * 
+     * Safe to repeat after an interruption: a git folder already moved aside
+     * is picked up where it was left.
+     * 
+     * @param project the Project to convert
+     * @throws IOException on file IO errors, or if not a working-tree clone
+     */
+    public static void convertToMirror(Project project) throws IOException {
+        Path folder = Paths.get(project.getCacheFolder());
+        Path mirror = folder.resolveSibling(folder.getFileName() + MIRROR_SUFFIX);
+
+        if (!Files.isDirectory(mirror)) {
+            if (!Files.isDirectory(folder.resolve(Constants.DOT_GIT)))
+                throw new IOException("Not a working-tree git clone: " + folder);
+
+            Files.move(folder.resolve(Constants.DOT_GIT), mirror, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(mirror.toFile()).setMustExist(true).build()) {
+            StoredConfig config = repo.getConfig();
+
+            config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_BARE, true);
+            config.unset(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_WORKTREE);
+            config.setStringList(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "fetch",
+                    Collections.singletonList(MIRROR_REFSPEC));
+            config.setBoolean(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "mirror", true);
+            config.save();
+        }
+        // a bare repository has no index
+        Files.deleteIfExists(mirror.resolve("index"));
+
+        FileUtils.deleteDirectory(folder.toFile());
+        Files.move(mirror, folder, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Attempt to MAINTAIN/FETCH a bare mirror, as "git fetch --prune" would:
+     * every remote reference is updated as is, and any gone from the remote
+     * removed.  If this DOES NOT throw an Exception, one may assume success.
+     * 
+     * @param project the Project to maintain
+     * @return a String describing the successful process
+     * @throws Exception on API or other IO error
+     */
+    public static String fetch(Project project) throws Exception {
+        try {
+            int updated = BACKEND.fetch(new File(project.getCacheFolder()), project.getRepositoryLink(),
+                    Collections.singletonList(MIRROR_REFSPEC), true);
+
+            return (0 == updated) ?
+                    "Already up-to-date." :
+                    "Updated " + updated + " references.";
+        } catch ( IOException e ) {
+            log.warn("FETCH IO Error on #" + project.getProjectId());
+            throw e;
+        }
+    }
+
+    /**
+     * Gather the loose object and pack counts and sizes of a repository.
+     * 
+     * @param gitDir the git metadata folder
+     * @return the statistics
+     * @throws IOException on IO errors
+     */
+    private static GC.RepoStatistics getStatistics(File gitDir) throws IOException {
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+            return new GC((FileRepository) repo).getStatistics();
+        }
+    }
+
+    /**
+     * HOUSEKEEP a Project's git cache: years of fetches leave it full of
+     * loose objects and small packs, slowing every fetch and count, so these
+     * are repacked together and unreachable objects pruned, by the configured
+     * GitBackend.  Partial clones are left until deepened.
+     * 
+     * @param project the Project to housekeep
+     * @return a String describing the successful process
+     * @throws Exception on API or other IO error
+     */
+    public static String housekeep(Project project) throws Exception {
+        if (isPartial(project))
+            return "Partial clone; left until deepened.";
+
+        File gitDir = getGitDir(project);
+
+        try {
+            GC.RepoStatistics before = getStatistics(gitDir);
+
+            BACKEND.gc(gitDir);
+
+            GC.RepoStatistics after = getStatistics(gitDir);
+
+            return "Packed " + before.numberOfLooseObjects + " loose objects and " + before.numberOfPackFiles + " packs (" +
+                    FileUtils.byteCountToDisplaySize(before.sizeOfLooseObjects + before.sizeOfPackedObjects) + ") into " +
+                    after.numberOfPackFiles + " packs (" +
+                    FileUtils.byteCountToDisplaySize(after.sizeOfLooseObjects + after.sizeOfPackedObjects) + ").";
+        } catch ( IOException e ) {
+            log.warn("HOUSEKEEP IO Error on #" + project.getProjectId());
+            throw e;
+        }
+    }
+
+    /**
+     * Describe the state of a repository's index and HEAD: the index file's
+     * modification time and size, and the branch and commit checked out.
+     * Anything JGit does to the working tree rewrites the index, so while
+     * this is unchanged, so is the working tree, as the archiver is its only
+     * writer.
+     * 
+     * @param repo the Repository
+     * @return the state
+     * @throws IOException on IO errors
+     */
+    private static String getCleanState(Repository repo) throws IOException {
+        File index = repo.getIndexFile();
+        Ref head = repo.exactRef(Constants.HEAD);
+
+        return index.lastModified() + " " + index.length() + " " +
+                ((null==head) ? "" : head.getTarget().getName() + " " + ObjectId.toString(head.getObjectId()));
+    }
+
+    /**
+     * Record a repository's current state as clean.
+     * 
+     * @param repo the Repository
+     * @param verified when the working tree was last scanned and found clean,
+     * in milliseconds
+     * @throws IOException on IO errors
+     */
+    private static void recordClean(Repository repo, long verified) throws IOException {
+        FileUtils.writeStringToFile(new File(repo.getDirectory(), CLEAN_STATE),
+                verified + "\n" + getCleanState(repo), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Look up when a repository's working tree was last scanned and found
+     * clean.
+     * 
+     * @param repo the Repository
+     * @return the time in milliseconds, or 0 if unknown
+     */
+    private static long getCleanVerified(Repository repo) {
+        try {
+            String recorded = FileUtils.readFileToString(new File(repo.getDirectory(), CLEAN_STATE), StandardCharsets.UTF_8);
+
+            return Long.parseLong(recorded.substring(0, recorded.indexOf('\n')));
+        } catch ( IOException | RuntimeException e ) {
+            return 0;
+        }
+    }
+
+    /**
      * Attempt to check if the repository's working directory is clear of
-     * changes. 
+     * changes.
+     * 
+     * A full status scan reads and hashes the whole working tree, so while
+     * the index and HEAD stay as they were when last found clean, the tree is
+     * trusted to be clean too, and scanned again only every few days.
      * 
      * @param project the Project to check
      * @return a Boolean describing if the directory is clean
      * @throws IOException on API or other IO error
      */
     public static boolean isClean(Project project) throws Exception {
-        Git gud = null;
-        try {
-            FileRepositoryBuilder builder = new FileRepositoryBuilder();
-            File cf = new File(project.getCacheFolder());
-            Repository repo = builder.setWorkTree(cf).findGitDir(cf).setMustExist(true)
-                    .build();
-            gud = new Git(repo);
-            
-            return gud.status().call().isClean();
+        try (Repository repo = new FileRepositoryBuilder()
+                .setWorkTree(new File(project.getCacheFolder()))
+                .findGitDir(new File(project.getCacheFolder()))
+                .setMustExist(true)
+                .build();
+             Git gud = new Git(repo)) {
+            File recorded = new File(repo.getDirectory(), CLEAN_STATE);
+
+            if (STATUS_VERIFY_DAYS > 0 &&
+                    getCleanVerified(repo) + TimeUnit.DAYS.toMillis(STATUS_VERIFY_DAYS) > System.currentTimeMillis() &&
+                    FileUtils.readFileToString(recorded, StandardCharsets.UTF_8).endsWith("\n" + getCleanState(repo)))
+                return true;
+
+            boolean clean = gud.status().call().isClean();
+
+            if (clean)
+                recordClean(repo, System.currentTimeMillis());
+            else
+                Files.deleteIfExists(recorded.toPath());
+
+            return clean;
         } catch (Exception e) {
             log.warn("isClean Error on #" + project.getProjectId());
             throw new Exception(e.getMessage());
@@ -231,12 +691,9 @@ public class GitRepository {
             gud = new Git(repo);
 
             // fetch remote changes, before doing anything
-            gud.fetch().call();
+            BACKEND.fetch(repo.getDirectory(), project.getRepositoryLink(), null, false);
         
-            Ref ref = Git.lsRemoteRepository().setRemote(project.getRepositoryLink()).callAsMap().get("HEAD");
-            if (ref == null) {
-                throw new Exception("Unable to locate remote HEAD for processing!");
-            }
+            Ref ref = getRemoteHead(project.getRepositoryLink());
 
             String branch = ref.getTarget().getName();
             String branchOnly = branch.replaceFirst("^refs\\/heads\\/", "");
@@ -257,8 +714,24 @@ public class GitRepository {
                 .setStartPoint("origin/" + branchOnly)
                 .call();
 
-            PullResult result = gud.pull().setRemoteBranchName(branch)   //("origin")
+            // a merge, unlike a pull, will go ahead on an unfinished one; refuse as a pull would
+            if (!RepositoryState.SAFE.equals(repo.getRepositoryState()))
+                throw new WrongRepositoryStateException(MessageFormat.format(
+                        JGitText.get().cannotPullOnARepoWithState, repo.getRepositoryState().name()));
+
+            // merge in the fetched remote branch, as a pull would, without fetching again
+            Ref remoteBranch = repo.exactRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchOnly);
+            if (null==remoteBranch)
+                throw new Exception("Unable to locate remote branch " + branchOnly + " for processing!");
+
+            MergeResult result = gud.merge()
+                    .include(remoteBranch)
                     .call();
+
+            // a clean tree stays clean through a successful merge
+            if (result.getMergeStatus().isSuccessful() && getCleanVerified(repo) > 0)
+                recordClean(repo, getCleanVerified(repo));
+
             // return the RESULT information
             return result.toString();
         } catch ( JGitInternalException e ) {
@@ -308,17 +781,10 @@ public class GitRepository {
             pathToProject = repo.getDirectory().getAbsolutePath();
             gud = new Git(repo);
 
-            Ref ref = Git.lsRemoteRepository().setRemote(project.getRepositoryLink()).callAsMap().get("HEAD");
-            if (ref == null) {
-                throw new Exception("Unable to locate remote HEAD for processing!");
-            }
-
             // first do a fetch
-            gud.fetch()
-                .setCheckFetchedObjects(true)
-                .setRemoveDeletedRefs(true)
-                .setForceUpdate(true)
-                .call();
+            BACKEND.fetch(repo.getDirectory(), project.getRepositoryLink(), null, true);
+
+            Ref ref = getRemoteHead(project.getRepositoryLink());
 
             // attempt to determine what the origin head commit is
             ObjectId originHead = ref.getObjectId();
@@ -378,10 +844,7 @@ public class GitRepository {
             pathToProject = repo.getDirectory().getAbsolutePath();
             gud = new Git(repo);
             
-            Ref ref = Git.lsRemoteRepository().setRemote(project.getRepositoryLink()).callAsMap().get("HEAD");
-            if (ref == null) {
-                throw new Exception("Unable to locate remote HEAD for processing!");
-            }
+            Ref ref = getRemoteHead(project.getRepositoryLink());
 
             branch = ref.getTarget().getName();
             String branchOnly = branch.replaceFirst("^refs\\/heads\\/", "");
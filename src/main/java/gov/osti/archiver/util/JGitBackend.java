@@ -0,0 +1,112 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.transport.FetchResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Clone, fetch and collect in process with JGit.  JGit can make neither
+ * shallow nor partial clones, so those are left to the git command line
+ * program.
+ */
+class JGitBackend implements GitBackend {
+    private static final Logger log = LoggerFactory.getLogger(JGitBackend.class);
+
+    @Override
+    public void clone(String url, Path path, GitRepository.CloneStrategy strategy, int depth, boolean mirror) throws IOException {
+        switch ( strategy ) {
+            case SHALLOW:
+            case BLOBLESS:
+                new CliGitBackend().clone(url, path, strategy, depth, mirror);
+                return;
+
+            default:
+                break;
+        }
+
+        try {
+            CloneCommand clone = Git
+                .cloneRepository()
+                .setURI(url)
+                .setDirectory(path.toFile());
+
+            if (GitRepository.CloneStrategy.SINGLE_BRANCH.equals(strategy)) {
+                // the default branch alone
+                String branch = GitRepository.getRemoteHead(url).getTarget().getName();
+
+                clone.setBare(mirror)
+                    .setBranch(branch)
+                    .setBranchesToClone(Collections.singletonList(branch));
+            } else {
+                clone.setCloneAllBranches(true)
+                    .setMirror(mirror);
+            }
+
+            try (Git git = clone.call()) {
+                // do nothing, just try-with-resources to close file locks
+            }
+        } catch ( GitAPIException e ) {
+            log.warn("Git for URL: " + url + " failed: " + e.getMessage());
+            throw new IOException("Git Failure: " + e.getMessage());
+        } catch ( IOException e ) {
+            throw e;
+        } catch ( Exception e ) {
+            log.warn("Git for URL: " + url + " failed: " + e.getMessage());
+            throw new IOException("Git Failure: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fetch with JGit.  Where the remote advertised all its references, HEAD
+     * included, in doing so (as it does over the original wire protocol),
+     * they are cached, for looking up its HEAD after without asking again.
+     */
+    @Override
+    public int fetch(File gitDir, String url, List<String> refspecs, boolean prune) throws IOException {
+        try (Git git = Git.open(gitDir)) {
+            FetchCommand fetch = git.fetch()
+                .setRemoveDeletedRefs(prune)
+                .setCheckFetchedObjects(true);
+            if (null!=refspecs)
+                fetch.setRefSpecs(refspecs.toArray(new String[0]));
+
+            FetchResult result = fetch.call();
+
+            if (null!=result.getAdvertisedRef(Constants.HEAD))
+                GitRepository.cacheRemoteRefs(url, result.getAdvertisedRefs().stream()
+                        .collect(Collectors.toMap(Ref::getName, (ref) -> ref, (a, b) -> a)));
+
+            return result.getTrackingRefUpdates().size();
+        } catch ( GitAPIException | JGitInternalException e ) {
+            throw new IOException("Git Failure: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Collect with JGit, which keeps branches and tags in one pack and any
+     * other references in a second.  JGit cannot write commit-graphs.
+     */
+    @Override
+    public void gc(File gitDir) throws IOException {
+        try (Git git = Git.open(gitDir)) {
+            git.gc().call();
+        } catch ( GitAPIException | JGitInternalException e ) {
+            throw new IOException("Git Failure: " + e.getMessage(), e);
+        }
+    }
+}
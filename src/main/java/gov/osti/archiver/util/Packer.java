@@ -0,0 +1,189 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import gov.osti.archiver.listener.ServletContextListener;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Set;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+/**
+ * Pack a cache folder into a compressed tar archive, written as a stream
+ * while the folder is walked, so nothing is staged on disk.
+ *
+ * Transient files of git and Subversion metadata (lock files, temporary pack
+ * files and the like) are left out, so a repository may be packed while in
+ * use, and unpacks as a usable repository.
+ */
+public class Packer {
+    // number of gzip compression Threads; 0 for one per processor
+    private static int PACK_THREADS = (int) ServletContextListener.getConfigurationProperty("pack.threads", 0);
+    // I/O buffer size for the archive output
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // tar mode of executable files; others get the default
+    private static final int EXECUTABLE_MODE = 0100755;
+    // zstd compression level
+    private static final int ZSTD_LEVEL = 3;
+
+    /**
+     * Write a folder as a tar.gz archive.  Entries are named relative to the
+     * folder's parent, so unpack into a folder of the same name; symbolic
+     * links are stored as links, never followed.
+     *
+     * @param folder the folder to pack
+     * @param out the OutputStream to write the archive to; not closed
+     * @throws IOException on file IO errors
+     */
+    public static void writeTarGz(Path folder, OutputStream out) throws IOException {
+        writeTarGz(folder, Collections.emptySet(), out);
+    }
+
+    /**
+     * Write a folder as a tar.gz archive, leaving out certain files.  The
+     * gzip compression is spread across several Threads.
+     *
+     * @param folder the folder to pack
+     * @param exclude files within the folder to leave out
+     * @param out the OutputStream to write the archive to; not closed
+     * @throws IOException on file IO errors
+     */
+    public static void writeTarGz(Path folder, Set<Path> exclude, OutputStream out) throws IOException {
+        int threads = (PACK_THREADS > 0) ? PACK_THREADS : Runtime.getRuntime().availableProcessors();
+
+        // finish the archive, but leave the caller's stream open
+        writeTar(folder, exclude, new ParallelGzipOutputStream(CloseShieldOutputStream.wrap(out), threads));
+    }
+
+    /**
+     * Write a folder as a tar.zst archive, leaving out certain files.
+     *
+     * @param folder the folder to pack
+     * @param exclude files within the folder to leave out
+     * @param out the OutputStream to write the archive to; not closed
+     * @throws IOException on file IO errors
+     */
+    public static void writeTarZstd(Path folder, Set<Path> exclude, OutputStream out) throws IOException {
+        writeTar(folder, exclude, new ZstdCompressorOutputStream(CloseShieldOutputStream.wrap(out), ZSTD_LEVEL));
+    }
+
+    /**
+     * Write a folder as a tar archive to a compressing OutputStream.
+     *
+     * @param folder the folder to pack
+     * @param exclude files within the folder to leave out
+     * @param compressor the compressing OutputStream; closed when done
+     * @throws IOException on file IO errors
+     */
+    private static void writeTar(Path folder, Set<Path> exclude, OutputStream compressor) throws IOException {
+        Path root = folder.toAbsolutePath();
+        Path base = root.getParent();
+        boolean bare = GitRepository.isBare(root);
+
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new BufferedOutputStream(compressor, BUFFER_SIZE))) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    TarArchiveEntry entry = new TarArchiveEntry(base.relativize(dir).toString().replace('\\', '/') + "/");
+
+                    entry.setModTime(attrs.lastModifiedTime().toMillis());
+                    tar.putArchiveEntry(entry);
+                    tar.closeArchiveEntry();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String name = base.relativize(file).toString().replace('\\', '/');
+
+                    if (exclude.contains(file) || isTransient(root.relativize(file), bare))
+                        return FileVisitResult.CONTINUE;
+
+                    if (attrs.isSymbolicLink()) {
+                        TarArchiveEntry entry = new TarArchiveEntry(name, TarConstants.LF_SYMLINK);
+                        entry.setLinkName(Files.readSymbolicLink(file).toString());
+                        entry.setModTime(attrs.lastModifiedTime().toMillis());
+                        tar.putArchiveEntry(entry);
+                        tar.closeArchiveEntry();
+                    } else if (attrs.isRegularFile()) {
+                        TarArchiveEntry entry = new TarArchiveEntry(name);
+
+                        entry.setSize(attrs.size());
+                        entry.setModTime(attrs.lastModifiedTime().toMillis());
+                        if (Files.isExecutable(file))
+                            entry.setMode(EXECUTABLE_MODE);
+                        tar.putArchiveEntry(entry);
+                        try (InputStream in = Files.newInputStream(file)) {
+                            // copy no more than recorded, should the file grow meanwhile
+                            IOUtils.copyLarge(in, tar, 0, entry.getSize());
+                        }
+                        tar.closeArchiveEntry();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    // transient files may be gone by the time they are reached
+                    if (isTransient(root.relativize(file), bare))
+                        return FileVisitResult.CONTINUE;
+                    throw e;
+                }
+            });
+        }
+    }
+
+    /**
+     * Determine whether a file is transient repository metadata: git lock
+     * files, gc pid files, and temporary or incoming pack files, or the
+     * Subversion temporary folder and database journal.
+     *
+     * @param path the file path, relative to the folder being packed
+     * @param bare true if the folder being packed is a bare git repository
+     * @return true if the file is to be left out
+     */
+    static boolean isTransient(Path path, boolean bare) {
+        String name = path.getFileName().toString();
+        String type = (bare) ? ".git" : null;
+        int start = 0;
+
+        // find the innermost repository metadata folder the file is in
+        for ( int i = 0; i < path.getNameCount() - 1; ++i ) {
+            String part = path.getName(i).toString();
+
+            if (".git".equals(part) || ".svn".equals(part)) {
+                type = part;
+                start = i + 1;
+            }
+        }
+
+        if (null==type || start >= path.getNameCount())
+            return false;
+
+        Path meta = path.subpath(start, path.getNameCount());
+
+        if (".git".equals(type))
+            return name.endsWith(".lock") ||
+                    "gc.pid".equals(name) ||
+                    (meta.startsWith("objects") && meta.getNameCount() > 2 &&
+                        (name.startsWith("tmp_") || meta.getName(1).toString().startsWith("incoming-")));
+
+        return "wc.db-journal".equals(name) || (meta.getNameCount() > 1 && "tmp".equals(meta.getName(0).toString()));
+    }
+}
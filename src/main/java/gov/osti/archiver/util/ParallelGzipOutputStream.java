@@ -0,0 +1,217 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip OutputStream compressing on several Threads at once, in the manner
+ * of pigz.
+ *
+ * Content is cut into fixed-size blocks, each deflated on its own by a worker
+ * Thread, primed with the last 32 KB of the block before it so compression
+ * hardly suffers.  Each block but the last ends in a sync flush, so the
+ * compressed blocks, written back in order, join into a single ordinary gzip
+ * member any gzip reader can inflate.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+    // uncompressed size of each block compressed on its own
+    private static final int BLOCK_SIZE = 128 * 1024;
+    // size of the deflate window primed from the previous block
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    // gzip member header: magic, deflate, no flags or time, unix
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 3 };
+
+    // the compressed output
+    private final OutputStream out;
+    // the compression workers
+    private final ExecutorService pool;
+    // blocks being compressed, in output order
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    // number of blocks that may be in progress at once
+    private final int maxPending;
+    // CRC-32 and size of all uncompressed content
+    private final CRC32 crc = new CRC32();
+    private long size = 0;
+    // the block being filled
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int count = 0;
+    // the end of the previous block
+    private byte[] dictionary = null;
+    private boolean closed = false;
+
+    /**
+     * Start a gzip stream.
+     *
+     * @param out the OutputStream to write compressed content to
+     * @param threads the number of compression Threads to use
+     * @throws IOException on IO errors
+     */
+    ParallelGzipOutputStream(OutputStream out, int threads) throws IOException {
+        this.out = out;
+        this.maxPending = 2 * Math.max(1, threads);
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), (task) -> {
+            Thread thread = new Thread(task, "gzip");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException ("Stream closed.");
+
+        crc.update(b, off, len);
+        size += len;
+
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - count);
+
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+
+            if (BLOCK_SIZE == count)
+                submit(false);
+        }
+    }
+
+    /**
+     * Write out blocks already compressed.  A partial block is held back, as
+     * every block boundary costs some compression.
+     *
+     * @throws IOException on IO errors
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peek().isDone())
+            writeNext();
+        out.flush();
+    }
+
+    /**
+     * Finish the gzip member, and close the underlying stream.
+     *
+     * @throws IOException on IO errors
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+
+        try {
+            submit(true);
+            while (!pending.isEmpty())
+                writeNext();
+
+            // trailer: CRC-32 and size modulo 2^32, little-endian
+            long value = crc.getValue();
+            out.write(new byte[] {
+                (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24) });
+            out.flush();
+        } finally {
+            closed = true;
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Hand the current block to a worker, writing out earlier blocks if
+     * enough are in progress.
+     *
+     * @param last true for the final block of the stream
+     * @throws IOException on IO errors
+     */
+    private void submit(boolean last) throws IOException {
+        byte[] input = block;
+        int length = count;
+        byte[] primer = dictionary;
+
+        pending.add(pool.submit(() -> deflate(input, length, primer, last)));
+
+        // the tail of this (full) block primes the next
+        dictionary = Arrays.copyOfRange(input, Math.max(0, length - DICTIONARY_SIZE), length);
+
+        block = new byte[BLOCK_SIZE];
+        count = 0;
+
+        while (pending.size() > maxPending)
+            writeNext();
+    }
+
+    /**
+     * Wait for the next block in order, and write it out.
+     *
+     * @throws IOException on IO errors, or if compression failed
+     */
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch ( ExecutionException e ) {
+            throw new IOException ("Compression failed: " + e.getCause().getMessage(), e.getCause());
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException ("Compression interrupted.", e);
+        }
+    }
+
+    /**
+     * Compress a single block as raw deflate data.
+     *
+     * @param input the block content
+     * @param length the length of the block content
+     * @param primer the end of the previous block, or null if none
+     * @param last true for the final block, which ends the deflate stream;
+     * others end in a sync flush, on a byte boundary
+     * @return the compressed block
+     */
+    private static byte[] deflate(byte[] input, int length, byte[] primer, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buffer = new byte[BLOCK_SIZE];
+
+        try {
+            if (null!=primer && primer.length > 0)
+                deflater.setDictionary(primer);
+            deflater.setInput(input, 0, length);
+
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished())
+                    result.write(buffer, 0, deflater.deflate(buffer));
+            } else {
+                int n;
+
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    result.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return result.toByteArray();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * An InputStream that reads its source on a separate background Thread.
+ *
+ * Content is passed through a bounded ring of reusable byte chunks, so that a
+ * CPU-bound source (such as a decompressor) can run ahead of the consumer
+ * while it is busy writing, without holding more than a fixed amount of
+ * content in memory.
+ */
+public class PipelinedInputStream extends InputStream {
+    // marker Chunk for the end of the source content
+    private static final Chunk END = new Chunk(0);
+
+    // empty Chunks available to the reader Thread
+    private final BlockingQueue<Chunk> free;
+    // filled Chunks waiting for the consumer, in order
+    private final BlockingQueue<Chunk> full;
+    // background Thread reading the source
+    private final Thread reader;
+    // the first source read failure, if any
+    private volatile IOException failure;
+    // set once this stream has been closed
+    private volatile boolean closed = false;
+
+    // the Chunk currently being consumed
+    private Chunk current;
+    // read position in the current Chunk
+    private int position;
+
+    /**
+     * A reusable buffer of source content.
+     */
+    private static class Chunk {
+        private final byte[] data;
+        private int length;
+
+        private Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    /**
+     * Start reading the source in the background.
+     *
+     * @param source the InputStream to read; closed when exhausted, or when
+     * this stream is closed
+     * @param chunkSize the size of each Chunk in bytes
+     * @param chunks the number of Chunks in the ring
+     */
+    public PipelinedInputStream(InputStream source, int chunkSize, int chunks) {
+        free = new ArrayBlockingQueue<>(chunks);
+        full = new ArrayBlockingQueue<>(chunks + 1);
+
+        for ( int i = 0; i < chunks; ++i )
+            free.add(new Chunk(chunkSize));
+
+        reader = new Thread(() -> fill(source), "PipelinedInputStream");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Background Thread loop: fill free Chunks from the source and queue them
+     * for the consumer, then queue the END marker.
+     *
+     * @param source the InputStream to read
+     */
+    private void fill(InputStream source) {
+        try (InputStream in = source) {
+            while (!closed) {
+                Chunk chunk = free.take();
+
+                chunk.length = IOUtils.read(in, chunk.data);
+                if (chunk.length == 0)
+                    break;
+
+                full.put(chunk);
+            }
+        } catch ( IOException e ) {
+            failure = e;
+        } catch ( InterruptedException e ) {
+            // closed while waiting on the consumer
+            return;
+        }
+
+        try {
+            full.put(END);
+        } catch ( InterruptedException e ) {
+            // closed while waiting on the consumer
+        }
+    }
+
+    /**
+     * Make sure a Chunk with unread content is current, if possible.
+     *
+     * @return true if content is available, false at the end of the source
+     * @throws IOException if the source failed
+     */
+    private boolean nextChunk() throws IOException {
+        if (closed)
+            throw new IOException ("Stream closed.");
+
+        if (END != current) {
+            if (null != current) {
+                if (position < current.length)
+                    return true;
+                free.add(current);
+            }
+
+            try {
+                current = full.take();
+                position = 0;
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException ("Interrupted waiting for content.");
+            }
+        }
+
+        if (END == current && null != failure)
+            throw failure;
+
+        return END != current;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return (nextChunk()) ? current.data[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (0 == len)
+            return 0;
+        if (!nextChunk())
+            return -1;
+
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, count);
+        position += count;
+
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (null == current || END == current) ? 0 : current.length - position;
+    }
+
+    /**
+     * Stop the background reader, which closes the source.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        reader.interrupt();
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+/**
+ * JGit HTTP transport connections drawn from a shared pool of kept-alive
+ * HttpClient connections, so the several requests of each fetch or ls-remote,
+ * and the requests of successive Projects on the same host, reuse connections
+ * rather than opening (and TLS-negotiating) new ones each time.
+ *
+ * The client is left transparent to JGit, which handles its own redirects,
+ * authentication, cookies and content encoding.  Connections configured with
+ * their own SSL settings (http.sslVerify false) use a client of their own.
+ *
+ * A pooled connection is leased to a request until its response is read to
+ * the end, its content closed, or the connection disconnected; error and
+ * redirect responses, which JGit may never read, are read in full and
+ * released at once.
+ */
+public class PooledHttpConnectionFactory implements HttpConnectionFactory {
+    // milliseconds to wait for a pooled connection
+    private static final int POOL_TIMEOUT = 60000;
+    // milliseconds a pooled connection may sit idle before being checked
+    private static final int VALIDATE_AFTER = 2000;
+    // seconds an idle pooled connection is kept
+    private static final long IDLE_SECONDS = 60;
+
+    // the connection pool
+    private final PoolingHttpClientConnectionManager pool;
+    // the shared client
+    private final CloseableHttpClient client;
+
+    /**
+     * Create a connection pool.
+     *
+     * @param connections the most connections to keep open to each host
+     */
+    public PooledHttpConnectionFactory(int connections) {
+        pool = new PoolingHttpClientConnectionManager(IDLE_SECONDS, TimeUnit.SECONDS);
+        pool.setDefaultMaxPerRoute(connections);
+        pool.setMaxTotal(connections * 4);
+        pool.setValidateAfterInactivity(VALIDATE_AFTER);
+
+        client = transparent(HttpClients.custom())
+                .setConnectionManager(pool)
+                .evictIdleConnections(IDLE_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Configure a client builder to leave requests and responses as JGit sends
+     * and expects them.
+     *
+     * @param builder the HttpClientBuilder
+     * @return the builder
+     */
+    private static HttpClientBuilder transparent(HttpClientBuilder builder) {
+        return builder
+                .disableRedirectHandling()
+                .disableAuthCaching()
+                .disableCookieManagement()
+                .disableContentCompression()
+                .useSystemProperties();
+    }
+
+    /**
+     * Get the number of pooled connections leased to requests.
+     *
+     * @return the number of connections in use
+     */
+    int getLeased() {
+        return pool.getTotalStats().getLeased();
+    }
+
+    /**
+     * Close all pooled connections.
+     *
+     * @throws IOException on IO errors
+     */
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @Override
+    public HttpConnection create(URL url) throws IOException {
+        return new PooledHttpConnection(url, null);
+    }
+
+    @Override
+    public HttpConnection create(URL url, Proxy proxy) throws IOException {
+        return new PooledHttpConnection(url, proxy);
+    }
+
+    /**
+     * A single HTTP request and response, executed when its response is first
+     * asked for.
+     */
+    class PooledHttpConnection implements HttpConnection {
+        private final URL url;
+        private final HttpHost proxy;
+        private final List<Header> requestHeaders = new ArrayList<>();
+        private String method = "GET";
+        private int connectTimeout = 0;
+        private int readTimeout = 0;
+        private boolean followRedirects = false;
+        // request content, if any
+        private TemporaryBuffer body;
+        // SSL settings of a connection needing a client of its own
+        private SSLContext sslContext;
+        private HostnameVerifier hostnameVerifier;
+        // the response, once executed
+        private CloseableHttpResponse response;
+        private CloseableHttpClient ownClient;
+
+        private PooledHttpConnection(URL url, Proxy proxy) {
+            this.url = url;
+            this.proxy = (null!=proxy && Proxy.Type.HTTP.equals(proxy.type()) && proxy.address() instanceof InetSocketAddress) ?
+                    new HttpHost(((InetSocketAddress) proxy.address()).getHostString(), ((InetSocketAddress) proxy.address()).getPort()) :
+                    null;
+        }
+
+        /**
+         * Send the request, if not already sent.  Error responses are read in
+         * full at once, so their connections go straight back to the pool
+         * whether or not JGit reads them.
+         *
+         * @return the response
+         * @throws IOException on IO errors
+         */
+        private CloseableHttpResponse execute() throws IOException {
+            if (null!=response)
+                return response;
+
+            RequestConfig.Builder config = RequestConfig.custom()
+                    .setConnectTimeout(connectTimeout)
+                    .setSocketTimeout(readTimeout)
+                    .setConnectionRequestTimeout(POOL_TIMEOUT)
+                    .setRedirectsEnabled(followRedirects);
+            if (null!=proxy)
+                config.setProxy(proxy);
+
+            RequestBuilder request;
+            try {
+                request = RequestBuilder.create(method).setUri(url.toURI()).setConfig(config.build());
+            } catch ( URISyntaxException e ) {
+                throw new IOException("Invalid URL " + url + ": " + e.getMessage(), e);
+            }
+            for ( Header header : requestHeaders )
+                request.addHeader(header);
+            if (null!=body) {
+                body.close();
+                request.setEntity(new InputStreamEntity(body.openInputStream(), body.length()));
+            }
+
+            CloseableHttpClient http = client;
+            if (null!=sslContext) {
+                ownClient = transparent(HttpClients.custom())
+                        .setSSLContext(sslContext)
+                        .setSSLHostnameVerifier(hostnameVerifier)
+                        .build();
+                http = ownClient;
+            }
+
+            try {
+                response = http.execute(request.build());
+            } finally {
+                if (null!=body)
+                    body.destroy();
+            }
+
+            HttpEntity entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() >= 300 || null==entity) {
+                if (null!=entity)
+                    response.setEntity(new BufferedHttpEntity(entity));
+                release();
+            }
+
+            return response;
+        }
+
+        /**
+         * Return the connection to the pool, closing it if its response was
+         * not read in full, and close any client of its own.  A response
+         * already buffered may still be read after.
+         *
+         * @throws IOException on IO errors
+         */
+        private void release() throws IOException {
+            try {
+                if (null!=response)
+                    response.close();
+            } finally {
+                if (null!=ownClient) {
+                    ownClient.close();
+                    ownClient = null;
+                }
+            }
+        }
+
+        /**
+         * Release the connection without reading (any more of) its response.
+         *
+         * @throws IOException on IO errors
+         */
+        public void disconnect() throws IOException {
+            release();
+        }
+
+        /**
+         * Get the response for a header lookup, sending the request if needed.
+         *
+         * @return the response, or null if it could not be sent
+         */
+        private CloseableHttpResponse executed() {
+            try {
+                return execute();
+            } catch ( IOException e ) {
+                return null;
+            }
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return execute().getStatusLine().getStatusCode();
+        }
+
+        @Override
+        public URL getURL() {
+            return url;
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            return execute().getStatusLine().getReasonPhrase();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            Map<String, List<String>> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+            if (null!=executed())
+                for ( Header header : response.getAllHeaders() )
+                    fields.computeIfAbsent(header.getName(), (name) -> new ArrayList<>()).add(header.getValue());
+
+            return fields;
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            requestHeaders.removeIf((header) -> header.getName().equalsIgnoreCase(key));
+            requestHeaders.add(new BasicHeader(key, value));
+        }
+
+        @Override
+        public void setRequestMethod(String method) {
+            this.method = method;
+        }
+
+        @Override
+        public void setUseCaches(boolean usecaches) {
+            // no caching
+        }
+
+        @Override
+        public void setConnectTimeout(int timeout) {
+            this.connectTimeout = timeout;
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) {
+            this.readTimeout = timeout;
+        }
+
+        @Override
+        public String getContentType() {
+            HttpEntity entity = (null==executed()) ? null : response.getEntity();
+
+            return (null==entity || null==entity.getContentType()) ? null : entity.getContentType().getValue();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            HttpEntity entity = execute().getEntity();
+
+            return (null==entity) ? new ByteArrayInputStream(new byte[0]) : new ReleasingInputStream(entity.getContent());
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            Header header = (null==executed()) ? null : response.getFirstHeader(name);
+
+            return (null==header) ? null : header.getValue();
+        }
+
+        @Override
+        public List<String> getHeaderFields(String name) {
+            List<String> values = getHeaderFields().get(name);
+
+            return (null==values) ? Collections.emptyList() : Collections.unmodifiableList(values);
+        }
+
+        @Override
+        public int getContentLength() {
+            HttpEntity entity = (null==executed()) ? null : response.getEntity();
+
+            return (null==entity || entity.getContentLength() > Integer.MAX_VALUE) ? -1 : (int) entity.getContentLength();
+        }
+
+        @Override
+        public void setInstanceFollowRedirects(boolean followRedirects) {
+            this.followRedirects = followRedirects;
+        }
+
+        @Override
+        public void setDoOutput(boolean dooutput) {
+            // the method determines whether content is sent
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(int contentLength) {
+            // content is buffered, and sent with its length
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            if (null==body)
+                body = new TemporaryBuffer.LocalFile(null);
+            return body;
+        }
+
+        @Override
+        public void setChunkedStreamingMode(int chunklen) {
+            // content is buffered, and sent with its length
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return method;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return null!=proxy;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            execute();
+        }
+
+        @Override
+        public void configure(KeyManager[] km, TrustManager[] tm, SecureRandom random) throws NoSuchAlgorithmException, KeyManagementException {
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(km, tm, random);
+        }
+
+        @Override
+        public void setHostnameVerifier(HostnameVerifier hostnameverifier) {
+            this.hostnameVerifier = hostnameverifier;
+        }
+
+        /**
+         * Response content, returning the connection to the pool (or closing
+         * any client of its own) when read to the end, or closed.
+         */
+        private class ReleasingInputStream extends FilterInputStream {
+            private ReleasingInputStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b < 0)
+                    release();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n < 0)
+                    release();
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release();
+                }
+            }
+        }
+    }
+}
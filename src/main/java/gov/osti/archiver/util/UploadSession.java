@@ -0,0 +1,325 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import gov.osti.archiver.listener.ServletContextListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A chunked, resumable file upload.
+ *
+ * Each session is a folder holding the upload content, preallocated at its
+ * full size, and a one-byte-per-chunk record of which chunks have arrived.
+ * Chunks are numbered from 0, each covering a fixed-size range of the file,
+ * and may be sent in any order (or again, after a dropped connection); each is
+ * written straight to its position in the content file.  Sessions survive a
+ * restart, so an interrupted upload only needs its missing chunks re-sent.
+ */
+public class UploadSession {
+    // logger
+    private static Logger log = LoggerFactory.getLogger(UploadSession.class);
+    // base file folders for uploads in progress
+    private static String FILE_BASEDIR = ServletContextListener.getConfigurationProperty("file.archive");
+    private static String FILE_LIMITED_BASEDIR = ServletContextListener.getConfigurationProperty("file.limited.archive");
+    // sub-folder of the base file folder holding upload sessions
+    private static final String UPLOADS = "uploads";
+    // size of each upload chunk
+    private static final long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static long CHUNK_SIZE = ServletContextListener.getConfigurationProperty("upload.chunk.size", DEFAULT_CHUNK_SIZE);
+    // hours an unfinished upload session is kept
+    private static long SESSION_HOURS = ServletContextListener.getConfigurationProperty("upload.session.hours", 48);
+    // session file names
+    private static final String CONTENT = "content";
+    private static final String CHUNKS = "chunks";
+    private static final String PROPERTIES = "upload.properties";
+    // copy buffer size for chunk writes
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // the session identifier
+    private final String id;
+    // the session folder
+    private final Path folder;
+    // the original file name of the upload
+    private final String fileName;
+    // the total size of the upload
+    private final long fileSize;
+    // the chunk size of this session
+    private final long chunkSize;
+    // whether the upload is limited software
+    private final boolean isLimited;
+
+    private UploadSession(String id, Path folder, String fileName, long fileSize, long chunkSize, boolean isLimited) {
+        this.id = id;
+        this.folder = folder;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.isLimited = isLimited;
+    }
+
+    /**
+     * Get the folder holding upload sessions.
+     *
+     * @param isLimited true for limited software uploads
+     * @return the sessions folder
+     */
+    private static Path getUploadsFolder(boolean isLimited) {
+        return Paths.get(isLimited ? FILE_LIMITED_BASEDIR : FILE_BASEDIR, UPLOADS);
+    }
+
+    /**
+     * Start a new upload session, preallocating its content file.
+     *
+     * @param fileName the base file name of the upload
+     * @param fileSize the total size of the upload, in bytes
+     * @param isLimited true for limited software uploads
+     * @return the new UploadSession
+     * @throws IOException on file IO errors
+     */
+    public static UploadSession create(String fileName, long fileSize, boolean isLimited) throws IOException {
+        Path uploads = getUploadsFolder(isLimited);
+        removeExpired(uploads);
+
+        String id = UUID.randomUUID().toString();
+        Path folder = Files.createDirectories(uploads.resolve(id));
+        long chunkSize = (CHUNK_SIZE > 0) ? CHUNK_SIZE : DEFAULT_CHUNK_SIZE;
+        UploadSession session = new UploadSession(id, folder, fileName, fileSize, chunkSize, isLimited);
+
+        try (FileChannel content = FileChannel.open(folder.resolve(CONTENT), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+             FileChannel chunks = FileChannel.open(folder.resolve(CHUNKS), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            // size the files up front, so chunks may arrive in any order
+            if (fileSize > 0)
+                content.write(ByteBuffer.allocate(1), fileSize - 1);
+            if (session.getChunkCount() > 0)
+                chunks.write(ByteBuffer.allocate(1), session.getChunkCount() - 1);
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("file.name", fileName);
+        properties.setProperty("file.size", String.valueOf(fileSize));
+        properties.setProperty("chunk.size", String.valueOf(chunkSize));
+        properties.setProperty("limited", String.valueOf(isLimited));
+        try (OutputStream out = Files.newOutputStream(folder.resolve(PROPERTIES))) {
+            properties.store(out, "chunked upload session");
+        }
+
+        return session;
+    }
+
+    /**
+     * Look up an existing upload session.
+     *
+     * @param id the session identifier
+     * @return the UploadSession, or null if not found
+     * @throws IOException on file IO errors
+     */
+    public static UploadSession find(String id) throws IOException {
+        try {
+            // only ever a UUID, never a path
+            id = UUID.fromString(id).toString();
+        } catch ( IllegalArgumentException e ) {
+            return null;
+        }
+
+        for ( boolean isLimited : new boolean[] { false, true } ) {
+            Path folder = getUploadsFolder(isLimited).resolve(id);
+            Path propertiesFile = folder.resolve(PROPERTIES);
+
+            if (Files.exists(propertiesFile)) {
+                Properties properties = new Properties();
+
+                try (InputStream in = Files.newInputStream(propertiesFile)) {
+                    properties.load(in);
+                }
+
+                return new UploadSession(id, folder,
+                        properties.getProperty("file.name"),
+                        Long.parseLong(properties.getProperty("file.size")),
+                        Long.parseLong(properties.getProperty("chunk.size")),
+                        Boolean.parseBoolean(properties.getProperty("limited")));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove any upload sessions left unfinished for too long: those with no
+     * chunk received (or, if none ever was, begun) within the session hours.
+     * Writing a chunk leaves the session folder's own time alone, so the
+     * chunk record's time is the one to go by.
+     *
+     * @param uploads the sessions folder
+     */
+    private static void removeExpired(Path uploads) {
+        File[] sessions = uploads.toFile().listFiles();
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(SESSION_HOURS);
+
+        if (null==sessions || SESSION_HOURS <= 0)
+            return;
+
+        for ( File session : sessions )
+            if (session.isDirectory() &&
+                    Math.max(session.lastModified(), new File(session, CHUNKS).lastModified()) < cutoff)
+                try {
+                    log.info("Removing expired upload session " + session.getName());
+                    FileUtils.deleteDirectory(session);
+                } catch ( IOException e ) {
+                    log.warn("Unable to remove upload session " + session.getName() + ": " + e.getMessage());
+                }
+    }
+
+    /**
+     * @return the session identifier
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the original file name of the upload
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the total size of the upload, in bytes
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the size of each chunk (the last may be shorter)
+     */
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return true if this is a limited software upload
+     */
+    public boolean getIsLimited() {
+        return isLimited;
+    }
+
+    /**
+     * @return the number of chunks in the upload
+     */
+    public long getChunkCount() {
+        return (fileSize + chunkSize - 1) / chunkSize;
+    }
+
+    /**
+     * @return the upload content file
+     */
+    public Path getContent() {
+        return folder.resolve(CONTENT);
+    }
+
+    /**
+     * Write a chunk of the upload to its position in the content file, then
+     * record it as received.
+     *
+     * @param chunk the chunk number, from 0
+     * @param in the chunk content
+     * @throws IOException on file IO errors
+     * @throws IllegalArgumentException if the chunk number or length is wrong
+     */
+    public void writeChunk(long chunk, InputStream in) throws IOException {
+        if (chunk < 0 || chunk >= getChunkCount())
+            throw new IllegalArgumentException ("Chunk " + chunk + " is out of range.");
+
+        long offset = chunk * chunkSize;
+        long length = Math.min(chunkSize, fileSize - offset);
+        long written = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        try (FileChannel content = FileChannel.open(getContent(), StandardOpenOption.WRITE)) {
+            int count;
+
+            while ( (count = IOUtils.read(in, buffer.array())) > 0 ) {
+                if (written + count > length)
+                    throw new IllegalArgumentException ("Chunk " + chunk + " exceeds its length of " + length + " bytes.");
+
+                buffer.clear();
+                buffer.limit(count);
+                while (buffer.hasRemaining())
+                    written += content.write(buffer, offset + written);
+            }
+            if (written != length)
+                throw new IllegalArgumentException ("Chunk " + chunk + " has " + written + " of its " + length + " bytes.");
+
+            content.force(false);
+        }
+
+        try (FileChannel chunks = FileChannel.open(folder.resolve(CHUNKS), StandardOpenOption.WRITE)) {
+            chunks.write(ByteBuffer.wrap(new byte[] { 1 }), chunk);
+        }
+    }
+
+    /**
+     * @return the chunk numbers not yet received
+     * @throws IOException on file IO errors
+     */
+    public List<Long> getMissingChunks() throws IOException {
+        List<Long> missing = new ArrayList<>();
+        byte[] received = Files.readAllBytes(folder.resolve(CHUNKS));
+
+        for ( long chunk = 0; chunk < getChunkCount(); ++chunk )
+            if (chunk >= received.length || 0 == received[(int) chunk])
+                missing.add(chunk);
+
+        return missing;
+    }
+
+    /**
+     * Compute the SHA-256 digest of the upload content.
+     *
+     * @return the digest, in lower-case hexadecimal
+     * @throws IOException on file IO errors
+     */
+    public String getSha256() throws IOException {
+        MessageDigest digest = BlobStore.newDigest();
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel content = FileChannel.open(getContent(), StandardOpenOption.READ)) {
+            while (content.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return String.format("%064x", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * Remove the session and its content.
+     *
+     * @throws IOException on file IO errors
+     */
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Random-access reader for the central directory of a zip archive.
+ *
+ * Only the end of the file and the central directory itself are memory-mapped
+ * and parsed, so listing a large archive, or reading a single entry from it,
+ * does not require extracting (or even reading) the rest of the content.
+ * Zip64 archives are supported; stored and deflated entries may be read.
+ */
+public class ZipIndex implements Closeable {
+    // record signatures
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    // fixed record sizes
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int CENTRAL_FILE_HEADER_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    // the end record may be followed by a comment of up to 64 KB
+    private static final int MAX_COMMENT = 0xffff;
+    // extra fields: Zip64 extended information, NTFS times, and Unix extended timestamp
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int NTFS_EXTRA = 0x000a;
+    private static final int TIMESTAMP_EXTRA = 0x5455;
+    // offset of the NTFS epoch (1601) from the Java epoch, in milliseconds
+    private static final long NTFS_EPOCH_OFFSET = 11644473600000L;
+    // compression methods
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    // general purpose flags
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final int FLAG_UTF8 = 0x0800;
+    // legacy zip entry name encoding
+    private static final Charset CP437 = Charset.forName("Cp437");
+
+    // the zip archive
+    private final FileChannel channel;
+    // the entries, by name, in central directory order
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * A zip archive entry, as recorded in the central directory.
+     */
+    public static class Entry {
+        private String name;
+        private int method;
+        private int flags;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private Date lastModified;
+        private long localHeaderOffset;
+
+        /**
+         * @return the entry path name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the uncompressed size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the compressed size in bytes
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return the CRC-32 of the uncompressed content
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        /**
+         * @return the last modification time recorded for the entry
+         */
+        @JsonFormat (shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss")
+        public Date getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return true if the entry is a folder
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * Read the central directory of a zip archive.
+     *
+     * @param file the zip archive to index
+     * @throws IOException on file IO errors, or if not a zip archive
+     */
+    public ZipIndex(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            readCentralDirectory();
+        } catch ( IOException | RuntimeException e ) {
+            try{channel.close();} catch (Exception ex) {}
+            throw (e instanceof IOException) ? (IOException) e : new IOException ("Invalid zip archive: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Map a region of the archive.
+     *
+     * @param position the start of the region
+     * @param size the size of the region
+     * @return a little-endian buffer over the region
+     * @throws IOException on file IO errors, or if the region is too large
+     */
+    private ByteBuffer map(long position, long size) throws IOException {
+        if (position < 0 || size < 0 || size > Integer.MAX_VALUE || position + size > channel.size())
+            throw new IOException ("Invalid zip archive region.");
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Locate the end of central directory record(s), then parse each central
+     * file header.
+     *
+     * @throws IOException on file IO errors, or if not a zip archive
+     */
+    private void readCentralDirectory() throws IOException {
+        long length = channel.size();
+        long tailStart = Math.max(0, length - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT);
+        ByteBuffer tail = map(tailStart, length - tailStart);
+
+        // scan backwards for the end record signature
+        int end = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY)
+            --end;
+        if (end < 0)
+            throw new IOException ("Not a zip archive.");
+
+        long count = tail.getShort(end + 10) & 0xffff;
+        long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+        long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+
+        // Zip64 archives keep the real values in their own end record
+        if (end >= ZIP64_LOCATOR_SIZE && tail.getInt(end - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR) {
+            ByteBuffer record = map(tail.getLong(end - ZIP64_LOCATOR_SIZE + 8), 56);
+
+            if (record.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY)
+                throw new IOException ("Invalid Zip64 end of central directory.");
+
+            count = record.getLong(32);
+            directorySize = record.getLong(40);
+            directoryOffset = record.getLong(48);
+        }
+
+        ByteBuffer directory = map(directoryOffset, directorySize);
+        int position = 0;
+
+        for ( long i = 0; i < count; ++i ) {
+            if (directory.getInt(position) != CENTRAL_FILE_HEADER)
+                throw new IOException ("Invalid zip central directory.");
+
+            Entry entry = new Entry();
+            entry.flags = directory.getShort(position + 8) & 0xffff;
+            entry.method = directory.getShort(position + 10) & 0xffff;
+            entry.lastModified = fromDosTime(directory.getInt(position + 12) & 0xffffffffL);
+            entry.crc = directory.getInt(position + 16) & 0xffffffffL;
+            entry.compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+            entry.size = directory.getInt(position + 24) & 0xffffffffL;
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            entry.localHeaderOffset = directory.getInt(position + 42) & 0xffffffffL;
+
+            byte[] name = new byte[nameLength];
+            ((ByteBuffer) directory.duplicate().position(position + CENTRAL_FILE_HEADER_SIZE)).get(name);
+            entry.name = new String(name, (0 != (entry.flags & FLAG_UTF8)) ? StandardCharsets.UTF_8 : CP437);
+
+            readExtra(directory, position + CENTRAL_FILE_HEADER_SIZE + nameLength, extraLength, entry);
+
+            entries.put(entry.name, entry);
+            position += CENTRAL_FILE_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Apply the extra fields of an entry.  Zip64 extended information holds
+     * the values that overflowed their central file header fields, in a fixed
+     * order; NTFS and extended timestamp fields hold a precise, time zone
+     * independent modification time, preferred over the DOS time as ZipFile
+     * does.
+     *
+     * @param directory the central directory
+     * @param start the start of the entry's extra fields
+     * @param length the length of the extra fields
+     * @param entry the Entry to update
+     */
+    private static void readExtra(ByteBuffer directory, int start, int length, Entry entry) {
+        int position = start;
+
+        while (position + 4 <= start + length) {
+            int id = directory.getShort(position) & 0xffff;
+            int size = directory.getShort(position + 2) & 0xffff;
+            int value = position + 4;
+
+            if (ZIP64_EXTRA == id) {
+                if (entry.size == 0xffffffffL) {
+                    entry.size = directory.getLong(value);
+                    value += 8;
+                }
+                if (entry.compressedSize == 0xffffffffL) {
+                    entry.compressedSize = directory.getLong(value);
+                    value += 8;
+                }
+                if (entry.localHeaderOffset == 0xffffffffL)
+                    entry.localHeaderOffset = directory.getLong(value);
+            } else if (NTFS_EXTRA == id && size >= 32 && directory.getShort(value + 4) == 0x0001) {
+                // 4 reserved bytes, then the times attribute: modification time first
+                entry.lastModified = new Date(directory.getLong(value + 8) / 10000 - NTFS_EPOCH_OFFSET);
+            } else if (TIMESTAMP_EXTRA == id && size >= 5 && 0 != (directory.get(value) & 0x01)) {
+                entry.lastModified = new Date((directory.getInt(value + 1) & 0xffffffffL) * 1000);
+            }
+            position += 4 + size;
+        }
+    }
+
+    /**
+     * Convert an MS-DOS date and time, in local time, to a Date.
+     *
+     * @param dosTime the packed date and time
+     * @return the Date
+     */
+    private static Date fromDosTime(long dosTime) {
+        return new GregorianCalendar(
+                (int) ((dosTime >> 25) & 0x7f) + 1980,
+                (int) ((dosTime >> 21) & 0x0f) - 1,
+                (int) ((dosTime >> 16) & 0x1f),
+                (int) ((dosTime >> 11) & 0x1f),
+                (int) ((dosTime >> 5) & 0x3f),
+                (int) ((dosTime << 1) & 0x3e)).getTime();
+    }
+
+    /**
+     * @return the archive entries, in central directory order
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * Look up an entry by name.
+     *
+     * @param name the entry path name
+     * @return the Entry, or null if not in the archive
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Read the content of a single entry, straight from its mapped location
+     * in the archive.
+     *
+     * @param entry the Entry to read
+     * @return an InputStream of the uncompressed content
+     * @throws IOException on file IO errors, or unsupported entries
+     */
+    public InputStream getInputStream(Entry entry) throws IOException {
+        if (0 != (entry.flags & FLAG_ENCRYPTED))
+            throw new IOException ("Encrypted zip entries are not supported.");
+
+        // the local header's name and extra field lengths may differ from the central directory's
+        ByteBuffer header = map(entry.localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER)
+            throw new IOException ("Invalid zip local file header for " + entry.getName());
+
+        long start = entry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE +
+                (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+        InputStream in = new MappedInputStream(map(start, entry.compressedSize));
+
+        switch (entry.method) {
+            case STORED:
+                return in;
+            case DEFLATED:
+                return new InflaterInputStream(in, new Inflater(true), 64 * 1024) {
+                    // end the native inflater along with the stream
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inf.end();
+                    }
+                };
+            default:
+                throw new IOException ("Unsupported zip compression method " + entry.method + " for " + entry.getName());
+        }
+    }
+
+    /**
+     * Release the archive.
+     *
+     * @throws IOException on file IO errors
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * An InputStream over a mapped region of the archive.
+     */
+    private static class MappedInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return (buffer.hasRemaining()) ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (0 == len)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ */
+package gov.osti.archiver.services;
+
+import gov.osti.archiver.entity.ArchiveRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.ws.rs.core.Response;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test the checking of batch archive requests, before any database access.
+ */
+public class ArchiveResourceTest {
+
+    /**
+     * Create an archive request.
+     *
+     * @param codeId the CODE ID
+     * @param link the REPOSITORY LINK
+     * @return the request
+     */
+    private static ArchiveRequest request(Long codeId, String link) {
+        ArchiveRequest ar = new ArchiveRequest();
+        ar.setCodeId(codeId);
+        ar.setRepositoryLink(link);
+        return ar;
+    }
+
+    /**
+     * Ensure that a batch completes scheme-less links as a single POST does,
+     * so both store the same REPOSITORY LINK.
+     */
+    @Test
+    public void testBatchSchemeLessLink() {
+        List<ArchiveRequest> requests = Arrays.asList(
+                request(1L, "github.com/doecode/archiver"),
+                request(2L, "https://github.com/doecode/archiver.git"),
+                request(3L, "http://example.org/repo"),
+                request(null, "github.com/doecode/doecode"),
+                request(4L, null));
+        List<ArchiveResource.BatchResult> results = new ArrayList<>();
+
+        List<String> keys = ArchiveResource.validateBatch(requests, results);
+
+        assertEquals("Wrong results", requests.size(), results.size());
+        assertEquals("Scheme not added", "https://github.com/doecode/archiver", requests.get(0).getRepositoryLink());
+        assertEquals("HTTPS link changed", "https://github.com/doecode/archiver.git", requests.get(1).getRepositoryLink());
+        assertEquals("HTTP link changed", "http://example.org/repo", requests.get(2).getRepositoryLink());
+        assertEquals("Wrong keys",
+                Arrays.asList("github.com/doecode/archiver", "github.com/doecode/archiver", "example.org/repo", null, null),
+                keys);
+    }
+
+    /**
+     * Ensure that a batch not sent as a JSON array is a bad request.
+     */
+    @Test
+    public void testBatchNotArray() {
+        ArchiveResource resource = new ArchiveResource();
+
+        for ( String json : new String[] { "{\"code_id\":1,\"repository_link\":\"github.com/doecode/archiver\"}", "42", "\"text\"" } )
+            assertEquals("Wrong status for " + json, Response.Status.BAD_REQUEST.getStatusCode(),
+                    resource.archiveBatch(json).getStatus());
+    }
+}
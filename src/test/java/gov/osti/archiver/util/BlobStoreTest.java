@@ -0,0 +1,93 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test storing extracted files in the blob store.
+ */
+public class BlobStoreTest {
+    // base folder for relative test files
+    private static String BASEDIR = System.getProperty("basedir");
+
+    // the working folder of each test
+    private Path work;
+
+    @Before
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory(Paths.get(BASEDIR, "target"), "blobs");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(work.toFile());
+    }
+
+    /**
+     * Store content through a blob store.
+     *
+     * @param store the BlobStore
+     * @param content the content to store
+     * @param target the extracted file
+     * @throws IOException on IO errors
+     */
+    private static void store(BlobStore store, String content, Path target) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        MessageDigest digest = BlobStore.newDigest();
+        Path temp = store.createTemp();
+
+        Files.write(temp, bytes);
+        Files.createDirectories(target.getParent());
+        store.store(temp, digest.digest(bytes), target, false);
+    }
+
+    /**
+     * Ensure that extracted files still get their content when the blob may
+     * not be linked again, as at the file system link limit.
+     *
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testLinkLimit() throws Exception {
+        Path root = work.resolve("sha256");
+        BlobStore full = new BlobStore(root) {
+            @Override
+            void createLink(Path link, Path existing) throws IOException {
+                throw new FileSystemException(link.toString(), existing.toString(), "Too many links");
+            }
+        };
+        Path first = work.resolve("1/LICENSE");
+        Path second = work.resolve("2/LICENSE");
+        Path linked = work.resolve("3/LICENSE");
+
+        store(full, "license text", first);
+        store(full, "license text", second);
+        store(new BlobStore(root), "license text", linked);
+
+        for ( Path target : new Path[] { first, second, linked } )
+            assertEquals("Wrong content in " + target, "license text",
+                    new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+
+        // the new blob moved into place; the existing one copied privately
+        assertEquals("Blob not shared", 3, Files.getAttribute(first, "unix:nlink"));
+        assertTrue("Blob not shared", Files.isSameFile(first, linked));
+        assertEquals("Private copy shared", 1, Files.getAttribute(second, "unix:nlink"));
+
+        try (Stream<Path> temps = Files.list(root.resolve("tmp"))) {
+            assertEquals("Temporary files left", 0, temps.count());
+        }
+    }
+}
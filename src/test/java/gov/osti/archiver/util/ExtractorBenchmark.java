@@ -0,0 +1,120 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extraction throughput of each supported archive and compression format.
+ *
+ * Not part of the regular test run; use "mvn test -Dtest=ExtractorBenchmark".
+ * The corpus size may be set in megabytes with -Dbenchmark.size (default 64).
+ */
+public class ExtractorBenchmark {
+    // logger
+    private static Logger log = LoggerFactory.getLogger(ExtractorBenchmark.class);
+    // base folder for relative test files
+    private static String BASEDIR = System.getProperty("basedir", ".");
+    // size of the uncompressed corpus, in megabytes
+    private static int SIZE = Integer.getInteger("benchmark.size", 64);
+    // size of each corpus file
+    private static final int FILE_SIZE = 256*1024;
+    // number of timed extractions per format
+    private static final int ROUNDS = 3;
+
+    /**
+     * Generate a compressible "source code" corpus, archive it in each format,
+     * and log the best extraction throughput of each.
+     *
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void benchmarkFormats() throws Exception {
+        Path work = Paths.get(BASEDIR, "target", "extractor-benchmark");
+        FileUtils.deleteDirectory(work.toFile());
+        Files.createDirectories(work);
+
+        // corpus of text-like files
+        String[] words = { "public", "static", "void", "return", "if", "else", "for", "while", "class", "import", "new", "null", "{", "}", ";", "\n" };
+        Random random = new Random(1);
+        int files = Math.max(1, SIZE * 1024 * 1024 / FILE_SIZE);
+        long total = (long) files * FILE_SIZE;
+
+        Path tar = work.resolve("corpus.tar");
+        Path sevenZ = work.resolve("corpus.7z");
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(Files.newOutputStream(tar));
+             SevenZOutputFile zout = new SevenZOutputFile(sevenZ.toFile())) {
+            for ( int i = 0; i < files; ++i ) {
+                StringBuilder text = new StringBuilder(FILE_SIZE);
+                while (text.length() < FILE_SIZE)
+                    text.append(words[random.nextInt(words.length)]).append(' ');
+                byte[] content = text.substring(0, FILE_SIZE).getBytes("UTF-8");
+                String name = "src/package" + (i % 16) + "/File" + i + ".java";
+
+                TarArchiveEntry entry = new TarArchiveEntry(name);
+                entry.setSize(content.length);
+                out.putArchiveEntry(entry);
+                out.write(content);
+                out.closeArchiveEntry();
+
+                zout.putArchiveEntry(zout.createArchiveEntry(new java.io.File(name), name));
+                zout.write(content);
+                zout.closeArchiveEntry();
+            }
+        }
+
+        String[] compressions = { CompressorStreamFactory.GZIP, CompressorStreamFactory.BZIP2,
+            CompressorStreamFactory.XZ, CompressorStreamFactory.ZSTANDARD, CompressorStreamFactory.LZ4_FRAMED };
+
+        measure("tar", tar, total, work);
+        for ( String compression : compressions ) {
+            Path compressed = work.resolve("corpus.tar." + compression);
+            try (OutputStream out = new CompressorStreamFactory().createCompressorOutputStream(compression, Files.newOutputStream(compressed))) {
+                Files.copy(tar, out);
+            }
+            measure("tar." + compression, compressed, total, work);
+        }
+        measure("7z", sevenZ, total, work);
+
+        FileUtils.deleteDirectory(work.toFile());
+    }
+
+    /**
+     * Time the extraction of an archive, logging the best of several rounds.
+     *
+     * @param label the format name to log
+     * @param archive the archive to extract
+     * @param total the uncompressed content size in bytes
+     * @param work the working folder
+     * @throws Exception on extraction errors
+     */
+    private static void measure(String label, Path archive, long total, Path work) throws Exception {
+        long best = Long.MAX_VALUE;
+
+        for ( int round = 0; round < ROUNDS; ++round ) {
+            Path target = work.resolve("extract");
+            FileUtils.deleteDirectory(target.toFile());
+            Files.createDirectories(target);
+
+            long start = System.nanoTime();
+            Extractor.uncompressArchive(archive.toString(), target);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        log.info(String.format("%-12s %8.1f MB archive %8.1f MB/s", label,
+                Files.size(archive) / (1024.0 * 1024.0),
+                (total / (1024.0 * 1024.0)) / (best / 1e9)));
+    }
+}
@@ -2,11 +2,36 @@
  */
 package gov.osti.archiver.util;
 
+import gov.osti.archiver.entity.Project;
 import gov.osti.archiver.listener.ServletContextListener;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.sevenz.SevenZMethod;
+import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -67,20 +92,388 @@ public class ExtractorTest {
     @Test
     public void testIdentifyArchive() throws Exception {
         String[] files = { "test.zip", "test.tgz", "test.tar.gz", "test.jar", "test.war", "test.tar", "test.tar.bz2" };
+        String[] formats = { ArchiveStreamFactory.ZIP, ArchiveStreamFactory.TAR, ArchiveStreamFactory.TAR, ArchiveStreamFactory.ZIP, ArchiveStreamFactory.ZIP, ArchiveStreamFactory.TAR, ArchiveStreamFactory.TAR };
         // we expect all these to pass
-        for ( String file : files ) {
-            try(FileInputStream in = new FileInputStream(Paths.get(BASEDIR, "test_files", file).toString())) {
+        for ( int i = 0; i < files.length; ++i ) {
+            try(FileInputStream in = new FileInputStream(getTestFileFor(files[i]))) {
+                BufferedInputStream bis = Extractor.detectArchiveFormat(in, files[i]);
 
-                assertNotNull ("Cannot identify file: " + file, ArchiveStreamFactory.detect(Extractor.detectArchiveFormat(in, getTestFileFor(file))));
-            } catch(Exception e ) {}
+                assertEquals ("Cannot identify file: " + files[i], formats[i], Extractor.detectFormat(bis));
+                // detection must leave the original content in place to be stored
+                assertTrue ("Content consumed for file: " + files[i],
+                        Arrays.equals(Files.readAllBytes(Paths.get(getTestFileFor(files[i]))), IOUtils.toByteArray(bis)));
+            }
         }
         try(FileInputStream in = new FileInputStream(Paths.get(BASEDIR, "test_files", "text_file.txt").toString())) {
             // we expect this one to fail
-            assertNull  ("Identified base text file?", ArchiveStreamFactory.detect(Extractor.detectArchiveFormat(in, getTestFileFor("text_file.txt"))));
+            assertNull  ("Identified base text file?", Extractor.detectFormat(Extractor.detectArchiveFormat(in, getTestFileFor("text_file.txt"))));
 
             fail ("Text file passed extraction detection.");
         } catch ( Exception e ) {
             // this was expected
         }
     }
+    
+    /**
+     * Read an extracted folder into a Map of relative path to file content;
+     * folders map to null content.
+     * 
+     * @param base the folder to read
+     * @return the folder content, by relative path
+     * @throws IOException on file IO errors
+     */
+    private static Map<String, byte[]> readTree(Path base) throws IOException {
+        Map<String, byte[]> tree = new TreeMap<>();
+        
+        try (Stream<Path> paths = Files.walk(base)) {
+            for ( Path path : (Iterable<Path>) paths::iterator )
+                tree.put(base.relativize(path).toString(), Files.isDirectory(path) ? null : Files.readAllBytes(path));
+        }
+        return tree;
+    }
+    
+    /**
+     * Ensure that parallel zip extraction produces the same content as the
+     * serial extraction path.
+     * 
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testParallelZipExtraction() throws Exception {
+        Path work = Paths.get(BASEDIR, "target", "extractor-test");
+        FileUtils.deleteDirectory(work.toFile());
+        Files.createDirectories(work);
+        
+        // build a zip with nested folders, implied folders, and empty files
+        Path zip = work.resolve("parallel.zip");
+        Random random = new Random(42);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip.toFile()))) {
+            out.putNextEntry(new ZipEntry("src/"));
+            out.closeEntry();
+            for ( int i = 0; i < 50; ++i ) {
+                byte[] content = new byte[random.nextInt(20000)];
+                random.nextBytes(content);
+                out.putNextEntry(new ZipEntry((i % 3 == 0 ? "src/" : "lib/sub" + (i % 4) + "/") + "file" + i + ".dat"));
+                out.write(content);
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry("empty.txt"));
+            out.closeEntry();
+        }
+        
+        Path serial = Files.createDirectories(work.resolve("serial"));
+        Path parallel = Files.createDirectories(work.resolve("parallel"));
+        
+        Extractor.uncompressZipArchive(zip.toString(), serial, 1);
+        Extractor.uncompressZipArchive(zip.toString(), parallel, 4);
+        
+        Map<String, byte[]> expected = readTree(serial);
+        Map<String, byte[]> actual = readTree(parallel);
+        
+        assertEquals("Extracted entries differ", expected.keySet(), actual.keySet());
+        for ( String name : expected.keySet() )
+            assertTrue("Content differs for " + name, Arrays.equals(expected.get(name), actual.get(name)));
+    }
+    
+    /**
+     * Ensure that each of the newer compression formats, and 7z archives,
+     * extract to the original content.
+     * 
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testCompressionFormats() throws Exception {
+        Path work = Paths.get(BASEDIR, "target", "extractor-formats");
+        FileUtils.deleteDirectory(work.toFile());
+        
+        // some content to archive
+        Path source = Files.createDirectories(work.resolve("source"));
+        Files.createDirectories(source.resolve("src/main"));
+        Files.write(source.resolve("README.md"), "Testing compression formats.".getBytes("UTF-8"));
+        byte[] content = new byte[100000];
+        new Random(7).nextBytes(content);
+        Files.write(source.resolve("src/main/content.dat"), content);
+        Files.write(source.resolve("empty.txt"), new byte[0]);
+        
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(source)) {
+            paths = walk.filter(path -> !path.equals(source)).collect(Collectors.toList());
+        }
+        
+        // as a tar file, compressed in each available format
+        Path tar = work.resolve("test.tar");
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(Files.newOutputStream(tar))) {
+            for ( Path path : paths ) {
+                out.putArchiveEntry(out.createArchiveEntry(path.toFile(), source.relativize(path).toString()));
+                if (!Files.isDirectory(path))
+                    Files.copy(path, out);
+                out.closeArchiveEntry();
+            }
+        }
+        
+        String[] compressions = { CompressorStreamFactory.XZ, CompressorStreamFactory.ZSTANDARD, CompressorStreamFactory.LZ4_FRAMED };
+        
+        Map<String, byte[]> expected = readTree(source);
+        for ( String compression : compressions ) {
+            Path compressed = work.resolve("test.tar." + compression);
+            try (OutputStream out = new CompressorStreamFactory().createCompressorOutputStream(compression, Files.newOutputStream(compressed))) {
+                Files.copy(tar, out);
+            }
+            
+            Path target = Files.createDirectories(work.resolve(compression));
+            Extractor.uncompressArchive(compressed.toString(), target);
+            
+            assertEquals("Extracted entries differ for " + compression, expected.keySet(), readTree(target).keySet());
+            assertTrue("Content differs for " + compression, Arrays.equals(content, Files.readAllBytes(target.resolve("src/main/content.dat"))));
+        }
+        
+        // and as a 7z archive
+        Path sevenZ = work.resolve("test.7z");
+        try (SevenZOutputFile out = new SevenZOutputFile(sevenZ.toFile())) {
+            out.setContentCompression(SevenZMethod.DEFLATE);
+            for ( Path path : paths ) {
+                out.putArchiveEntry(out.createArchiveEntry(path.toFile(), source.relativize(path).toString()));
+                if (!Files.isDirectory(path))
+                    out.write(Files.readAllBytes(path));
+                out.closeArchiveEntry();
+            }
+        }
+        
+        Path target = Files.createDirectories(work.resolve("7z"));
+        Extractor.uncompressArchive(sevenZ.toString(), target);
+        
+        assertEquals("Extracted entries differ for 7z", expected.keySet(), readTree(target).keySet());
+        assertTrue("Content differs for 7z", Arrays.equals(content, Files.readAllBytes(target.resolve("src/main/content.dat"))));
+    }
+    
+    /**
+     * Ensure that an interrupted extraction resumes from its checkpoint:
+     * completed entries are skipped, a partially written entry is replaced,
+     * and the checkpoint is removed when done.
+     * 
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testResumeExtraction() throws Exception {
+        Path work = Paths.get(BASEDIR, "target", "extractor-resume");
+        FileUtils.deleteDirectory(work.toFile());
+        Files.createDirectories(work);
+        
+        Path tar = work.resolve("resume.tar");
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(Files.newOutputStream(tar))) {
+            for ( int i = 0; i < 10; ++i ) {
+                byte[] content = ("content of file " + i).getBytes("UTF-8");
+                TarArchiveEntry entry = new TarArchiveEntry("file" + i + ".txt");
+                entry.setSize(content.length);
+                out.putArchiveEntry(entry);
+                out.write(content);
+                out.closeArchiveEntry();
+            }
+        }
+        
+        // an extraction interrupted during the fourth entry, checkpointed after the third
+        Path target = Files.createDirectories(work.resolve("extract"));
+        for ( int i = 0; i < 3; ++i )
+            Files.write(target.resolve("file" + i + ".txt"), "done".getBytes("UTF-8"));
+        Files.write(target.resolve("file3.txt"), "partial".getBytes("UTF-8"));
+        
+        Properties progress = new Properties();
+        progress.setProperty("archive.size", String.valueOf(Files.size(tar)));
+        progress.setProperty("archive.modified", String.valueOf(Files.getLastModifiedTime(tar).toMillis()));
+        progress.setProperty("slices", "1");
+        progress.setProperty("entries.0", "3");
+        Path checkpoint = Paths.get(tar.toString() + ExtractionCheckpoint.SUFFIX);
+        try (OutputStream out = Files.newOutputStream(checkpoint)) {
+            progress.store(out, null);
+        }
+        
+        assertTrue("Interruption not recognized", Extractor.isInterrupted(tar.toString()));
+        Extractor.uncompressArchive(tar.toString(), target);
+        
+        for ( int i = 0; i < 10; ++i )
+            assertEquals("Wrong content for file " + i, (i < 3) ? "done" : "content of file " + i,
+                    new String(Files.readAllBytes(target.resolve("file" + i + ".txt")), "UTF-8"));
+        assertFalse("Checkpoint not removed", Files.exists(checkpoint));
+    }
+    
+    /**
+     * Ensure that extraction limits stop decompression bombs and overly deep
+     * entry paths as they are read.
+     * 
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testExtractionLimits() throws Exception {
+        Path work = Paths.get(BASEDIR, "target", "extractor-limits");
+        FileUtils.deleteDirectory(work.toFile());
+        Files.createDirectories(work);
+        
+        // 64 MB of zeros deflates to well past the configured ratio
+        Path bomb = work.resolve("bomb.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(bomb.toFile()))) {
+            out.putNextEntry(new ZipEntry("zeros.dat"));
+            byte[] zeros = new byte[1024 * 1024];
+            for ( int i = 0; i < 64; ++i )
+                out.write(zeros);
+            out.closeEntry();
+        }
+        
+        Path target = Files.createDirectories(work.resolve("bomb"));
+        try {
+            Extractor.uncompressArchive(bomb.toString(), target);
+            fail ("Decompression bomb was extracted.");
+        } catch ( IOException e ) {
+            assertTrue ("Unexpected failure: " + e.getMessage(), e.getMessage().contains("ratio"));
+        }
+        assertTrue ("Extraction not stopped early", Files.size(target.resolve("zeros.dat")) < 64 * 1024 * 1024);
+        
+        // entry nested past the configured depth
+        Path deep = work.resolve("deep.tar");
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(Files.newOutputStream(deep))) {
+            out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            StringBuilder name = new StringBuilder();
+            for ( int i = 0; i < 100; ++i )
+                name.append("d").append(i).append('/');
+            TarArchiveEntry entry = new TarArchiveEntry(name.append("file.txt").toString());
+            entry.setSize(1);
+            out.putArchiveEntry(entry);
+            out.write('x');
+            out.closeArchiveEntry();
+        }
+        
+        try {
+            Extractor.uncompressArchive(deep.toString(), Files.createDirectories(work.resolve("deep")));
+            fail ("Deep entry path was extracted.");
+        } catch ( IOException e ) {
+            assertTrue ("Unexpected failure: " + e.getMessage(), e.getMessage().contains("too deep"));
+        }
+    }
+    
+    /**
+     * Ensure that the zip central directory reader agrees with ZipFile on
+     * entry information and content, for stored and deflated entries.
+     * 
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testZipIndex() throws Exception {
+        Path work = Paths.get(BASEDIR, "target", "extractor-index");
+        FileUtils.deleteDirectory(work.toFile());
+        Files.createDirectories(work);
+        
+        Path zip = work.resolve("index.zip");
+        Random random = new Random(3);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip.toFile()))) {
+            out.putNextEntry(new ZipEntry("docs/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("docs/README-\u00e9t\u00e9.md"));
+            out.write("# Read me".getBytes("UTF-8"));
+            out.closeEntry();
+            
+            byte[] content = new byte[50000];
+            random.nextBytes(content);
+            ZipEntry stored = new ZipEntry("lib/random.bin");
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            crc.update(content);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(content);
+            out.closeEntry();
+        }
+        
+        String[] files = { zip.toString(), getTestFileFor("test.zip"), getTestFileFor("test.jar") };
+        for ( String file : files ) {
+            try (ZipIndex index = new ZipIndex(Paths.get(file));
+                 java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(file)) {
+                assertEquals ("Wrong entry count for " + file, zipFile.size(), index.getEntries().size());
+                
+                for ( ZipIndex.Entry entry : index.getEntries() ) {
+                    ZipEntry expected = zipFile.getEntry(entry.getName());
+                    
+                    assertNotNull ("Unknown entry " + entry.getName(), expected);
+                    assertEquals ("Wrong size for " + entry.getName(), expected.getSize(), entry.getSize());
+                    assertEquals ("Wrong compressed size for " + entry.getName(), expected.getCompressedSize(), entry.getCompressedSize());
+                    assertEquals ("Wrong CRC for " + entry.getName(), expected.getCrc(), entry.getCrc());
+                    assertEquals ("Wrong time for " + entry.getName(), expected.getTime(), entry.getLastModified().getTime());
+                    
+                    if (!entry.isDirectory())
+                        try (InputStream in = index.getInputStream(entry); InputStream zin = zipFile.getInputStream(expected)) {
+                            assertTrue ("Content differs for " + entry.getName(), Arrays.equals(IOUtils.toByteArray(zin), IOUtils.toByteArray(in)));
+                        }
+                }
+            }
+        }
+        
+        try {
+            new ZipIndex(Paths.get(getTestFileFor("test.tar"))).close();
+            fail ("Indexed a tar file.");
+        } catch ( IOException e ) {
+            // this was expected
+        }
+    }
+    
+    /**
+     * Write a zip archive of the given content, with a fixed entry time.
+     * 
+     * @param zip the archive to write
+     * @param content the entry content, by name
+     * @throws IOException on file IO errors
+     */
+    private static void writeZip(Path zip, Map<String, byte[]> content) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip.toFile()))) {
+            for ( Map.Entry<String, byte[]> file : content.entrySet() ) {
+                ZipEntry entry = new ZipEntry(file.getKey());
+                entry.setTime(1500000000000L);
+                out.putNextEntry(entry);
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+    
+    /**
+     * Ensure that re-extracting a new version of an archive links unchanged
+     * entries from the previous version's folder, and extracts the rest.
+     * 
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testIncrementalExtraction() throws Exception {
+        Project previous = new Project();
+        previous.setProjectId(9101L);
+        Project project = new Project();
+        project.setProjectId(9102L);
+        
+        // Projects extract into their folder under the archive base
+        String archiveBase = ServletContextListener.getConfigurationProperty("file.archive");
+        Path previousBase = Paths.get(archiveBase, "9101");
+        Path base = Paths.get(archiveBase, "9102");
+        FileUtils.deleteDirectory(previousBase.toFile());
+        FileUtils.deleteDirectory(base.toFile());
+        Files.createDirectories(previousBase);
+        Files.createDirectories(base);
+        
+        Map<String, byte[]> content = new TreeMap<>();
+        content.put("src/same.txt", "unchanged".getBytes("UTF-8"));
+        content.put("src/changed.txt", "version 1".getBytes("UTF-8"));
+        writeZip(previousBase.resolve("v1.zip"), content);
+        
+        content.put("src/changed.txt", "version 2".getBytes("UTF-8"));
+        content.put("src/added.txt", "new".getBytes("UTF-8"));
+        writeZip(base.resolve("v2.zip"), content);
+        
+        previous.setFileName(previousBase.resolve("v1.zip").toString());
+        previous.setCacheFolder(Extractor.uncompressArchive(previous));
+        project.setFileName(base.resolve("v2.zip").toString());
+        Extractor.uncompressArchive(project, previous);
+        
+        for ( Map.Entry<String, byte[]> file : content.entrySet() )
+            assertTrue ("Content differs for " + file.getKey(), Arrays.equals(file.getValue(), Files.readAllBytes(base.resolve(file.getKey()))));
+        
+        assertTrue ("Unchanged file not linked", Files.isSameFile(previousBase.resolve("src/same.txt"), base.resolve("src/same.txt")));
+        assertFalse ("Changed file linked", Files.isSameFile(previousBase.resolve("src/changed.txt"), base.resolve("src/changed.txt")));
+        assertTrue ("No manifest saved", Files.exists(Paths.get(project.getFileName() + ExtractionManifest.SUFFIX)));
+    }
 }
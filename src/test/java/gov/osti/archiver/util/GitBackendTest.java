@@ -0,0 +1,225 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test the GitBackend implementations against local file:// repositories.
+ */
+public class GitBackendTest {
+    // base folder for relative test files
+    private static String BASEDIR = System.getProperty("basedir");
+    // fetch every remote reference as is
+    private static final String MIRROR_REFSPEC = "+refs/*:refs/*";
+
+    // the working folder of each test
+    private Path work;
+    // the remote repository
+    private Git origin;
+    // its URL
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        work = Files.createTempDirectory(Paths.get(BASEDIR, "target"), "gitbackend");
+
+        origin = Git.init().setDirectory(work.resolve("origin").toFile()).call();
+        commit("README", "first");
+        commit("README", "second");
+        origin.branchCreate().setName("other").call();
+
+        url = "file://" + work.resolve("origin").toAbsolutePath();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        origin.close();
+        FileUtils.deleteDirectory(work.toFile());
+    }
+
+    /**
+     * Commit a file to the current branch of the remote repository.
+     *
+     * @param name the file name
+     * @param content the file content
+     * @return the new commit
+     * @throws Exception on git or IO errors
+     */
+    private RevCommit commit(String name, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(origin.getRepository().getWorkTree(), name), content, StandardCharsets.UTF_8);
+        origin.add().addFilepattern(name).call();
+        return origin.commit().setMessage(content).setAuthor("test", "test@example.com")
+                .setCommitter("test", "test@example.com").call();
+    }
+
+    /**
+     * Resolve a reference in a cloned repository.
+     *
+     * @param gitDir the git metadata folder
+     * @param name the reference name
+     * @return its object ID, or null if none
+     * @throws IOException on IO errors
+     */
+    private static ObjectId resolve(File gitDir, String name) throws IOException {
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+            return repo.resolve(name);
+        }
+    }
+
+    /**
+     * Skip tests of the command line backend if git is not installed.
+     */
+    private static void assumeGit() {
+        try {
+            CliGitBackend.run(null, "--version");
+        } catch ( IOException e ) {
+            Assume.assumeNoException(e);
+        }
+    }
+
+    /**
+     * Clone with a working tree, then fetch new commits into it.
+     *
+     * @param backend the GitBackend to test
+     * @throws Exception on unexpected errors
+     */
+    private void cloneAndFetch(GitBackend backend) throws Exception {
+        Path cache = Files.createDirectories(work.resolve("cache"));
+        File gitDir = cache.resolve(Constants.DOT_GIT).toFile();
+
+        backend.clone(url, cache, GitRepository.CloneStrategy.FULL, 1, false);
+
+        assertEquals("Wrong content", "second", FileUtils.readFileToString(cache.resolve("README").toFile(), StandardCharsets.UTF_8));
+        assertNotNull("Missing branch", resolve(gitDir, "refs/remotes/origin/other"));
+
+        RevCommit third = commit("README", "third");
+
+        assertEquals("Wrong update count", 1, backend.fetch(gitDir, url, null, false));
+        assertEquals("Not fetched", third, resolve(gitDir, "refs/remotes/origin/master"));
+        assertEquals("Wrong repeat count", 0, backend.fetch(gitDir, url, null, false));
+    }
+
+    /**
+     * Mirror every reference, then fetch and prune changes.
+     *
+     * @param backend the GitBackend to test
+     * @throws Exception on unexpected errors
+     */
+    private void mirrorAndPrune(GitBackend backend) throws Exception {
+        Path cache = Files.createDirectories(work.resolve("mirror"));
+        File gitDir = cache.toFile();
+
+        backend.clone(url, cache, GitRepository.CloneStrategy.FULL, 1, true);
+
+        assertTrue("Not bare", GitRepository.isBare(cache));
+        assertNotNull("Missing branch", resolve(gitDir, "refs/heads/other"));
+
+        RevCommit third = commit("README", "third");
+        origin.branchDelete().setBranchNames("other").setForce(true).call();
+
+        assertEquals("Wrong update count", 2, backend.fetch(gitDir, url, Collections.singletonList(MIRROR_REFSPEC), true));
+        assertEquals("Not fetched", third, resolve(gitDir, "refs/heads/master"));
+        assertNull("Not pruned", resolve(gitDir, "refs/heads/other"));
+    }
+
+    /**
+     * Make a shallow clone, of the latest commit only.
+     *
+     * @param backend the GitBackend to test
+     * @throws Exception on unexpected errors
+     */
+    private void shallowClone(GitBackend backend) throws Exception {
+        Path cache = Files.createDirectories(work.resolve("shallow"));
+
+        backend.clone(url, cache, GitRepository.CloneStrategy.SHALLOW, 1, false);
+
+        assertTrue("Not shallow", Files.exists(cache.resolve(Constants.DOT_GIT).resolve("shallow")));
+        assertNull("History not cut", resolve(cache.resolve(Constants.DOT_GIT).toFile(), "HEAD~1"));
+    }
+
+    /**
+     * Collect loose objects into packs, keeping all history.
+     *
+     * @param backend the GitBackend to test
+     * @throws Exception on unexpected errors
+     */
+    private void collect(GitBackend backend) throws Exception {
+        File gitDir = origin.getRepository().getDirectory();
+        RevCommit head = commit("README", "third");
+
+        assertTrue("No loose objects", new GC((FileRepository) origin.getRepository()).getStatistics().numberOfLooseObjects > 0);
+
+        backend.gc(gitDir);
+
+        GC.RepoStatistics stats;
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build()) {
+            stats = new GC((FileRepository) repo).getStatistics();
+        }
+        assertEquals("Loose objects left", 0, stats.numberOfLooseObjects);
+        assertTrue("Not packed", stats.numberOfPackFiles > 0);
+        assertEquals("History lost", head, resolve(gitDir, Constants.HEAD));
+        assertNotNull("History lost", resolve(gitDir, "HEAD~2"));
+    }
+
+    @Test
+    public void testJGitCloneAndFetch() throws Exception {
+        cloneAndFetch(new JGitBackend());
+    }
+
+    @Test
+    public void testJGitMirrorAndPrune() throws Exception {
+        mirrorAndPrune(new JGitBackend());
+    }
+
+    @Test
+    public void testCliCloneAndFetch() throws Exception {
+        assumeGit();
+        cloneAndFetch(new CliGitBackend());
+    }
+
+    @Test
+    public void testCliMirrorAndPrune() throws Exception {
+        assumeGit();
+        mirrorAndPrune(new CliGitBackend());
+    }
+
+    @Test
+    public void testJGitCollect() throws Exception {
+        collect(new JGitBackend());
+    }
+
+    @Test
+    public void testCliCollect() throws Exception {
+        assumeGit();
+        collect(new CliGitBackend());
+    }
+
+    @Test
+    public void testShallowClone() throws Exception {
+        assumeGit();
+        shallowClone(new JGitBackend());
+        FileUtils.deleteDirectory(work.resolve("shallow").toFile());
+        shallowClone(new CliGitBackend());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test the parallel gzip compression and tar packing of cache folders.
+ */
+public class PackerTest {
+    // base folder for relative test files
+    private static String BASEDIR = System.getProperty("basedir");
+
+    // the working folder of each test
+    private Path work;
+
+    @Before
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory(Paths.get(BASEDIR, "target"), "packer");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(work.toFile());
+    }
+
+    /**
+     * Compress content with a ParallelGzipOutputStream, in uneven writes.
+     *
+     * @param content the content to compress
+     * @param threads the number of compression Threads
+     * @return the gzip content
+     * @throws IOException on IO errors
+     */
+    private static byte[] gzip(byte[] content, int threads) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(bytes, threads)) {
+            int offset = 0;
+            for ( int length = 1; offset < content.length; length = length * 3 + 7 ) {
+                int n = Math.min(length, content.length - offset);
+                out.write(content, offset, n);
+                offset += n;
+                // flushing mid-stream must not end the member
+                if (length % 2 == 0)
+                    out.flush();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decompress content with the JDK's own gzip reader.
+     *
+     * @param gzip the gzip content
+     * @return the decompressed content
+     * @throws IOException on IO errors, or corrupt gzip content
+     */
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    /**
+     * Ensure that content compressed in parallel blocks inflates to the same
+     * bytes with GZIPInputStream, which checks the trailing CRC-32 and size.
+     *
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testParallelGzipRoundTrip() throws Exception {
+        Random random = new Random(42);
+
+        // several 128 KB blocks, and a partial one: compressible text, then noise
+        byte[] content = new byte[5 * 128 * 1024 + 12345];
+        byte[] text = "the quick brown fox jumps over the lazy dog\n".getBytes(StandardCharsets.UTF_8);
+        for ( int i = 0; i < 3 * 128 * 1024; ++i )
+            content[i] = text[i % text.length];
+        byte[] noise = new byte[content.length - 3 * 128 * 1024];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, content, 3 * 128 * 1024, noise.length);
+
+        for ( int threads : new int[] { 1, 4 } ) {
+            byte[] gzip = gzip(content, threads);
+
+            assertTrue("Content differs with " + threads + " threads", Arrays.equals(content, gunzip(gzip)));
+        }
+        assertTrue("Not compressed", gzip(content, 4).length < content.length);
+
+        // exactly one block, and nothing at all
+        byte[] block = Arrays.copyOf(content, 128 * 1024);
+        assertTrue("Single block differs", Arrays.equals(block, gunzip(gzip(block, 2))));
+        assertEquals("Empty content differs", 0, gunzip(gzip(new byte[0], 2)).length);
+    }
+
+    /**
+     * Ensure that packing a git working tree leaves out transient metadata
+     * and excluded files, but keeps everything else.
+     *
+     * @throws Exception on unexpected errors
+     */
+    @Test
+    public void testTransientFilesExcluded() throws Exception {
+        Path folder = work.resolve("project");
+        String[] kept = {
+            "README", "src/Main.java", ".git/HEAD", ".git/config", ".git/objects/pack/pack-1.pack",
+            ".git/refs/heads/master"
+        };
+        String[] left = {
+            ".git/index.lock", ".git/refs/heads/master.lock", ".git/gc.pid",
+            ".git/objects/pack/tmp_pack_1", ".git/objects/incoming-1/pack/pack-2.pack",
+            ".svn/tmp/entry", ".svn/wc.db-journal", "upload.zip"
+        };
+        for ( String name : kept )
+            FileUtils.writeStringToFile(folder.resolve(name).toFile(), name, StandardCharsets.UTF_8);
+        for ( String name : left )
+            FileUtils.writeStringToFile(folder.resolve(name).toFile(), name, StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Packer.writeTarGz(folder, Collections.singleton(folder.resolve("upload.zip").toAbsolutePath()), bytes);
+
+        Set<String> names = new HashSet<>();
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())))) {
+            TarArchiveEntry entry;
+            while (null!=(entry = tar.getNextTarEntry()))
+                if (!entry.isDirectory()) {
+                    names.add(entry.getName());
+                    assertEquals("Wrong content", entry.getName().substring("project/".length()),
+                            IOUtils.toString(tar, StandardCharsets.UTF_8));
+                }
+        }
+
+        for ( String name : kept )
+            assertTrue("Missing " + name, names.contains("project/" + name));
+        for ( String name : left )
+            assertFalse("Packed " + name, names.contains("project/" + name));
+
+        // metadata names mean nothing outside the metadata folder
+        assertFalse("Working file left out", Packer.isTransient(Paths.get("src", "gc.pid"), false));
+        assertTrue("Bare lock kept", Packer.isTransient(Paths.get("refs", "heads", "master.lock"), true));
+    }
+}
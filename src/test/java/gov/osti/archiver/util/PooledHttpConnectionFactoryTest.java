@@ -0,0 +1,115 @@
+/*
+ */
+package gov.osti.archiver.util;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test that pooled git HTTP connections go back to the pool however their
+ * responses are, or are not, read.
+ */
+public class PooledHttpConnectionFactoryTest {
+    // response content
+    private static final String CONTENT = "0008NAK\n0000";
+
+    // the local HTTP server
+    private HttpServer server;
+    // the connection pool, of a single connection
+    private PooledHttpConnectionFactory factory;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", (exchange) -> {
+            byte[] body = CONTENT.getBytes(StandardCharsets.UTF_8);
+            int status = (exchange.getRequestURI().getPath().endsWith("missing")) ? 404 : 200;
+
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        factory = new PooledHttpConnectionFactory(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        factory.close();
+        server.stop(0);
+    }
+
+    /**
+     * Open a connection to the local server.
+     *
+     * @param path the path requested
+     * @return the connection
+     * @throws IOException on IO errors
+     */
+    private HttpConnection open(String path) throws IOException {
+        HttpConnection conn = factory.create(new URL("http://127.0.0.1:" + server.getAddress().getPort() + path));
+        conn.setReadTimeout(5000);
+        return conn;
+    }
+
+    @Test
+    public void testReleaseOnClose() throws IOException {
+        HttpConnection conn = open("/info/refs");
+
+        assertEquals("Wrong status", 200, conn.getResponseCode());
+        assertEquals("Not leased", 1, factory.getLeased());
+
+        try (InputStream in = conn.getInputStream()) {
+            assertEquals("Wrong content", CONTENT.charAt(0), in.read());
+        }
+        assertEquals("Not released", 0, factory.getLeased());
+    }
+
+    @Test
+    public void testReleaseOnEnd() throws IOException {
+        HttpConnection conn = open("/info/refs");
+
+        // read to the end, never closed
+        assertEquals("Wrong content", CONTENT, IOUtils.toString(conn.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("Not released", 0, factory.getLeased());
+    }
+
+    @Test
+    public void testReleaseOnError() throws IOException {
+        // never read
+        assertEquals("Wrong status", 404, open("/missing").getResponseCode());
+        assertEquals("Not released", 0, factory.getLeased());
+
+        // the single connection is free for the next request
+        HttpConnection conn = open("/missing");
+        assertEquals("Wrong status", 404, conn.getResponseCode());
+        assertEquals("Wrong content", CONTENT, IOUtils.toString(conn.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReleaseOnDisconnect() throws IOException {
+        HttpConnection conn = open("/info/refs");
+
+        assertEquals("Wrong status", 200, conn.getResponseCode());
+        assertEquals("Not leased", 1, factory.getLeased());
+
+        // never read
+        ((PooledHttpConnectionFactory.PooledHttpConnection) conn).disconnect();
+        assertEquals("Not released", 0, factory.getLeased());
+
+        assertEquals("Wrong status", 200, open("/info/refs").getResponseCode());
+    }
+}